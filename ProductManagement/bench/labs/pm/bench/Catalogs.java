@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+
+/**
+ * Builds the catalogs the benchmarks run against: ids 1 to {@code size},
+ * alternating food and drinks, with prices, ratings and best before dates
+ * spread so that every rating and discount bucket is populated.
+ *
+ * @author hajadalaj
+ */
+final class Catalogs {
+
+    static {
+        Logger.getLogger("labs.pm.data").setLevel(Level.WARNING);
+    }
+
+    private Catalogs() {
+    }
+
+    static ProductManager create(String languageTag, int size) {
+        ProductManager pm = new ProductManager(languageTag);
+        LocalDate today = LocalDate.now();
+        for (int id = 1; id <= size; id++) {
+            BigDecimal price = BigDecimal.valueOf(100 + id % 900, 2);
+            Rating rating = Rating.values()[id % Rating.values().length];
+            if (id % 2 == 0) {
+                pm.createProduct(id, "Drink " + id, price, rating, id % 4 == 0);
+            } else {
+                pm.createProduct(id, "Food " + id, price, rating, today.plusDays(id % 7));
+            }
+        }
+        return pm;
+    }
+
+    static String productLine(int id) {
+        return id % 2 == 0
+                ? "D," + id + ",Drink " + id + ",1.99,3,false"
+                : "F," + id + ",Food " + id + ",3.99,4," + LocalDate.now().plusDays(3);
+    }
+
+    static String reviewLine(int id) {
+        return id + ",4,Rather nice, would buy again";
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.io.Writer;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rendering of product and review lines per locale, reported per line. The
+ * product report walks {@value #PRODUCTS} products, more than the rendered
+ * line cache holds, so most lines are rendered rather than served from it.
+ *
+ * @author hajadalaj
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FormatBenchmark {
+
+    static final int PRODUCTS = 50_000;
+    static final int REVIEWS = 1000;
+
+    @Param({"en-GB", "en-US", "fr-FR", "es-ES", "pt-BR"})
+    public String locale;
+
+    private ProductManager pm;
+    private Product reviewed;
+    private final Writer out = Writer.nullWriter();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        pm = Catalogs.create(locale, PRODUCTS);
+        Rating[] ratings = Rating.values();
+        for (int i = 0; i < REVIEWS; i++) {
+            pm.reviewProduct(1, ratings[1 + i % (ratings.length - 1)], "Review " + i);
+        }
+        reviewed = pm.findProduct(1);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PRODUCTS)
+    public void formatProducts() throws Exception {
+        pm.writeProducts(p -> true, Comparator.comparingInt(Product::getId), out);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REVIEWS)
+    public void formatReviews() throws Exception {
+        pm.writeProductReport(reviewed, out);
+    }
+
+}
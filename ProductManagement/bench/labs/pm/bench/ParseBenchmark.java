@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.util.concurrent.TimeUnit;
+import labs.pm.data.ProductManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code parseProduct} and {@code parseReview} on single lines. Product
+ * lines carry ids already in the catalog, so they are parsed and then
+ * rejected and the catalog does not grow.
+ *
+ * @author hajadalaj
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ParseBenchmark {
+
+    private static final int LINES = 1024;
+
+    @Param({"1000", "1000000"})
+    public int catalogSize;
+
+    private ProductManager pm;
+    private String[] productLines;
+    private String[] reviewLines;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pm = Catalogs.create("en-GB", catalogSize);
+        productLines = new String[LINES];
+        reviewLines = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            int id = 1 + (int) ((long) i * catalogSize / LINES);
+            productLines[i] = Catalogs.productLine(id);
+            reviewLines[i] = Catalogs.reviewLine(id);
+        }
+    }
+
+    @Benchmark
+    public void parseProduct() {
+        pm.parseProduct(productLines[next++ & (LINES - 1)]);
+    }
+
+    @Benchmark
+    public void parseReview() {
+        pm.parseReview(reviewLines[next++ & (LINES - 1)]);
+    }
+
+}
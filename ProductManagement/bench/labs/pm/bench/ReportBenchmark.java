@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.io.Writer;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The full product report in different orders, written to a discarding
+ * writer instead of the console {@code printProducts} uses, for one locale
+ * and for every supported locale in one pass.
+ *
+ * @author hajadalaj
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ReportBenchmark {
+
+    private static final Map<String, Comparator<Product>> COMPARATORS = Map.of(
+            "rating", Comparator.comparing(Product::getRating).reversed(),
+            "price", Comparator.comparing(Product::getPrice),
+            "name", Comparator.comparing(Product::getName));
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int catalogSize;
+
+    @Param({"rating", "price", "name"})
+    public String order;
+
+    private ProductManager pm;
+    private Comparator<Product> comparator;
+    private final Writer out = Writer.nullWriter();
+    private final Map<String, Writer> localeOuts = new HashMap<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        pm = Catalogs.create("en-GB", catalogSize);
+        comparator = COMPARATORS.get(order);
+        ProductManager.getSupportedLocales().forEach(tag -> localeOuts.put(tag, Writer.nullWriter()));
+    }
+
+    @Benchmark
+    public void printProducts() throws Exception {
+        pm.writeProducts(p -> true, comparator, out);
+    }
+
+    @Benchmark
+    public void printProductsAllLocales() throws Exception {
+        pm.writeProducts(p -> true, comparator, localeOuts);
+    }
+
+}
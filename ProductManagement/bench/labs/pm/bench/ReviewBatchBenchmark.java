@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import labs.pm.data.ProductManager;
+import labs.pm.data.ProductReview;
+import labs.pm.data.Rating;
+import labs.pm.data.ReviewQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Review ingestion throughput, in reviews per second, for a burst of
+ * {@value #REVIEWS} reviews spread over {@value #HOT_PRODUCTS} products,
+ * applied through {@code reviewProducts} in batches of {@code batchSize} or
+ * submitted to a {@link ReviewQueue} flushing at that size. The catalog is
+ * rebuilt before each iteration.
+ *
+ * @author hajadalaj
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(ReviewBatchBenchmark.REVIEWS)
+public class ReviewBatchBenchmark {
+
+    static final int REVIEWS = 10_000;
+    static final int HOT_PRODUCTS = 16;
+
+    @Param({"1", "100", "10000"})
+    public int batchSize;
+
+    private List<ProductReview> feed;
+    private List<List<ProductReview>> batches;
+    private ProductManager pm;
+    private ReviewQueue queue;
+
+    @Setup(Level.Trial)
+    public void createFeed() {
+        Random random = new Random(42);
+        feed = new ArrayList<>(REVIEWS);
+        for (int i = 0; i < REVIEWS; i++) {
+            feed.add(new ProductReview(1 + random.nextInt(HOT_PRODUCTS), Rating.values()[1 + random.nextInt(5)], "Review " + i));
+        }
+        batches = new ArrayList<>();
+        for (int i = 0; i < REVIEWS; i += batchSize) {
+            batches.add(feed.subList(i, Math.min(REVIEWS, i + batchSize)));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        pm = Catalogs.create("en-GB", 1000);
+        queue = pm.openReviewQueue(batchSize, Duration.ofMillis(1));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        queue.close();
+    }
+
+    @Benchmark
+    public int reviewProducts() {
+        int reviewed = 0;
+        for (List<ProductReview> batch : batches) {
+            reviewed += pm.reviewProducts(batch).size();
+        }
+        return reviewed;
+    }
+
+    @Benchmark
+    public void reviewQueue() {
+        for (ProductReview review : feed) {
+            queue.submit(review);
+        }
+        queue.flush();
+    }
+
+}
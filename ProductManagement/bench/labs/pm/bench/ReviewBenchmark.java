@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@code reviewProduct} against products that already hold
+ * {@code reviewsPerProduct} reviews. Reviews go to the first
+ * {@value #REVIEWED_PRODUCTS} products, which are rebuilt before each
+ * iteration so the review counts do not drift far from the parameter.
+ *
+ * @author hajadalaj
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ReviewBenchmark {
+
+    static final int REVIEWED_PRODUCTS = 64;
+
+    @Param({"1000", "100000", "1000000"})
+    public int catalogSize;
+
+    @Param({"0", "100", "10000"})
+    public int reviewsPerProduct;
+
+    private ProductManager pm;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        pm = Catalogs.create("en-GB", catalogSize);
+        Rating[] ratings = Rating.values();
+        for (int id = 1; id <= REVIEWED_PRODUCTS; id++) {
+            for (int i = 0; i < reviewsPerProduct; i++) {
+                pm.reviewProduct(id, ratings[1 + i % (ratings.length - 1)], "Review " + i);
+            }
+        }
+    }
+
+    @Benchmark
+    public Product reviewProduct() {
+        return pm.reviewProduct(1 + ThreadLocalRandom.current().nextInt(REVIEWED_PRODUCTS), Rating.FOUR_STAR, "Rather nice");
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+
+/**
+ * Stress run for concurrent review ingestion. For each thread count up to
+ * {@code maxThreads}, that many threads review random products of a fresh
+ * catalog while another thread creates {@code lateProducts} more, which the
+ * reviewers also target, through {@code importReviews} in batches of
+ * {@value #LATE_BATCH}, before and after they exist. Prints the throughput per
+ * thread count and exits with status 1 if the summed
+ * {@code getRatingDistribution()} does not match the reviews submitted:
+ * <pre>
+ * ReviewStress [catalogSize [reviewsPerThread [maxThreads [lateProducts]]]]
+ * </pre>
+ *
+ * @author hajadalaj
+ */
+public class ReviewStress {
+
+    static final int LATE_BATCH = 64;
+
+    public static void main(String[] args) throws InterruptedException {
+        int catalogSize = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        int reviewsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 250_000;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : 2 * Runtime.getRuntime().availableProcessors();
+        int lateProducts = args.length > 3 ? Integer.parseInt(args[3]) : 1_000;
+        System.out.printf("catalog of %d plus %d created during the run, %d reviews per thread%n",
+                catalogSize, lateProducts, reviewsPerThread);
+        System.out.printf("%8s %12s %12s %12s %8s%n", "threads", "reviews/s", "submitted", "counted", "result");
+        boolean failed = false;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            failed |= !run(catalogSize, reviewsPerThread, threads, lateProducts);
+        }
+        if (failed) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean run(int catalogSize, int reviewsPerThread, int threads, int lateProducts) throws InterruptedException {
+        ProductManager pm = Catalogs.create("en-GB", catalogSize);
+        Map<Rating, LongAdder> submitted = new EnumMap<>(Rating.class);
+        for (Rating rating : Rating.values()) {
+            submitted.put(rating, new LongAdder());
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                Rating[] ratings = Rating.values();
+                StringBuilder late = new StringBuilder();
+                int lateLines = 0;
+                await(start);
+                for (int n = 0; n < reviewsPerThread; n++) {
+                    int id = 1 + random.nextInt(catalogSize + lateProducts);
+                    Rating rating = ratings[1 + random.nextInt(ratings.length - 1)];
+                    if (id > catalogSize) {
+                        late.append(id).append(',').append(rating.ordinal()).append(",Late\n");
+                        if (++lateLines == LATE_BATCH) {
+                            importLate(pm, late);
+                            lateLines = 0;
+                        }
+                    } else {
+                        pm.reviewProduct(id, rating, "Rather nice");
+                    }
+                    submitted.get(rating).increment();
+                }
+                importLate(pm, late);
+            }, "review-stress-" + i));
+        }
+        workers.add(new Thread(() -> {
+            await(start);
+            for (int id = catalogSize + 1; id <= catalogSize + lateProducts; id++) {
+                pm.createProduct(id, "Late " + id, BigDecimal.ONE, Rating.NOT_RATED, false);
+            }
+        }, "review-stress-creator"));
+        workers.forEach(Thread::start);
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        Map<Rating, Integer> distribution = pm.getRatingDistribution();
+        boolean matches = pm.getPendingReviewCount() == 0;
+        long expected = 0;
+        long counted = 0;
+        for (Rating rating : Rating.values()) {
+            long sum = submitted.get(rating).sum();
+            int count = distribution.getOrDefault(rating, 0);
+            matches &= sum == count;
+            expected += sum;
+            counted += count;
+        }
+        System.out.printf("%8d %12.0f %12d %12d %8s%n", threads, expected * 1e9 / elapsed, expected, counted,
+                matches ? "ok" : "MISMATCH");
+        return matches;
+    }
+
+    private static void importLate(ProductManager pm, StringBuilder lines) {
+        try {
+            pm.importReviews(Channels.newChannel(new ByteArrayInputStream(lines.toString().getBytes(StandardCharsets.UTF_8))));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        lines.setLength(0);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import labs.pm.app.ShopServer;
+import labs.pm.data.LatencyHistogram;
+import labs.pm.data.ProductManager;
+
+/**
+ * Closed-loop load generator for {@link ShopServer}. Starts a server over a
+ * generated catalog, then for each concurrency level runs that many client
+ * threads, each sending its next request as soon as the last one is
+ * answered, and prints the throughput and latency percentiles:
+ * <pre>
+ * ShopLoad [catalogSize [seconds [maxConcurrency [serverThreads]]]]
+ * </pre>
+ * The request mix is 70% product lookups, 15% reviews, 10% product reports
+ * and 5% discount summaries. A running server can be targeted instead with
+ * {@code -Dshop.url=http://host:port}.
+ *
+ * @author hajadalaj
+ */
+public class ShopLoad {
+
+    public static void main(String[] args) throws Exception {
+        int catalogSize = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int maxConcurrency = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        int serverThreads = args.length > 3 ? Integer.parseInt(args[3]) : 4 * Runtime.getRuntime().availableProcessors();
+        String url = System.getProperty("shop.url");
+        ShopServer server = null;
+        ProductManager pm = null;
+        if (url == null) {
+            pm = Catalogs.create("en-GB", catalogSize);
+            server = new ShopServer(pm, new InetSocketAddress("localhost", 0), serverThreads);
+            server.start();
+            url = "http://localhost:" + server.getAddress().getPort();
+        }
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        System.out.printf("%s, catalog of %d, %d s per level%n", url, catalogSize, seconds);
+        System.out.printf("%11s %10s %10s %10s %10s %8s%n", "concurrency", "req/s", "p50 us", "p99 us", "max us", "errors");
+        run(client, url, catalogSize, 1, seconds);
+        for (int concurrency = 1; concurrency <= maxConcurrency; concurrency *= 2) {
+            Level level = run(client, url, catalogSize, concurrency, seconds);
+            LatencyHistogram.Summary latency = level.latency.summary();
+            System.out.printf("%11d %10.0f %10.1f %10.1f %10.1f %8d%n", concurrency, latency.getCount() / (double) seconds,
+                    latency.getP50() / 1e3, latency.getP99() / 1e3, latency.getMax() / 1e3, level.errors.sum());
+        }
+        if (server != null) {
+            server.stop(0);
+            System.out.println("Server side, all levels:");
+            pm.getMetrics().snapshot().getHistograms().forEach((name, summary) -> {
+                if (name.startsWith("http.")) {
+                    System.out.printf("%-26s %s%n", name, summary);
+                }
+            });
+        }
+    }
+
+    private static Level run(HttpClient client, String url, int catalogSize, int concurrency, int seconds) throws InterruptedException {
+        Level level = new Level();
+        long end = System.nanoTime() + Duration.ofSeconds(seconds).toNanos();
+        List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    HttpRequest request = next(url, catalogSize);
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        if (response.statusCode() != 200) {
+                            level.errors.increment();
+                        }
+                    } catch (IOException ex) {
+                        level.errors.increment();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                    level.latency.recordSince(start);
+                }
+            }, "shop-load-" + i);
+            clients.add(thread);
+            thread.start();
+        }
+        for (Thread thread : clients) {
+            thread.join();
+        }
+        return level;
+    }
+
+    private static HttpRequest next(String url, int catalogSize) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int id = 1 + random.nextInt(catalogSize);
+        int kind = random.nextInt(100);
+        if (kind < 70) {
+            return HttpRequest.newBuilder(URI.create(url + "/products/" + id)).build();
+        } else if (kind < 85) {
+            return HttpRequest.newBuilder(URI.create(url + "/products/" + id + "/reviews"))
+                    .header("Content-Type", "application/x-www-form-urlencoded")
+                    .POST(HttpRequest.BodyPublishers.ofString("rating=" + (1 + random.nextInt(5)) + "&comments=Rather+nice"))
+                    .build();
+        } else if (kind < 95) {
+            return HttpRequest.newBuilder(URI.create(url + "/products/" + id + "/report")).build();
+        } else {
+            return HttpRequest.newBuilder(URI.create(url + "/discounts")).build();
+        }
+    }
+
+    private static class Level {
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+    }
+
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.ProductManagerException;
+import labs.pm.data.Rating;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Durable {@code reviewProduct} throughput against a store opened on a
+ * temporary directory, from one thread and from {@value #CONTENDED_THREADS}
+ * threads, with each record forced on its own or with group commit waiting
+ * up to {@code commitInterval} milliseconds for more records. The interval
+ * is ignored without group commit.
+ *
+ * @author hajadalaj
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StoreBenchmark {
+
+    static final int CONTENDED_THREADS = 8;
+
+    @Param({"true", "false"})
+    public boolean groupCommit;
+
+    @Param({"0", "1", "5"})
+    public int commitInterval;
+
+    private Path directory;
+    private ProductManager pm;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ProductManagerException {
+        directory = Files.createTempDirectory("store-bench");
+        pm = Catalogs.create("en-GB", 1000);
+        pm.openStore(directory, groupCommit, Duration.ofMillis(commitInterval));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        pm.closeStore();
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Product reviewProduct() {
+        return review();
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public Product reviewProductContended() {
+        return review();
+    }
+
+    private Product review() {
+        return pm.reviewProduct(1 + ThreadLocalRandom.current().nextInt(1000), Rating.FOUR_STAR, "Rather nice");
+    }
+
+}
@@ -16,7 +16,10 @@
  */
 package labs.pm.app;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.Comparator;
 import labs.pm.data.Product;
@@ -33,9 +36,15 @@ import labs.pm.data.Rating;
 public class Shop {
 
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments; {@code serve [port [threads
+     * [products [reviews]]]]} starts a {@link ShopServer} instead, over the
+     * products and reviews imported from the given files
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
+        if (args.length > 0 && args[0].equals("serve")) {
+            serve(args);
+            return;
+        }
         ProductManager pm = new ProductManager("pt-BR");
 
 //        Product p1 = pm.createProduct(101, "Chopp", BigDecimal.valueOf(3.99), Rating.NOT_RATED, true);
@@ -98,4 +107,17 @@ public class Shop {
 //        
     }
 
+    private static void serve(String[] args) throws IOException {
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4 * Runtime.getRuntime().availableProcessors();
+        ProductManager pm = new ProductManager("en-GB");
+        if (args.length > 3) {
+            pm.importProducts(Path.of(args[3]));
+        }
+        if (args.length > 4) {
+            pm.importReviews(Path.of(args[4]));
+        }
+        new ShopServer(pm, new InetSocketAddress(port), threads).start();
+    }
+
 }
@@ -0,0 +1,379 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.app;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import labs.pm.data.LatencyHistogram;
+import labs.pm.data.Product;
+import labs.pm.data.ProductManager;
+import labs.pm.data.Rating;
+
+/**
+ * Embedded HTTP front end serving one shared {@link ProductManager}:
+ * <pre>
+ * GET  /products/{id}           the product as JSON
+ * POST /products/{id}/reviews   form fields rating (0 to 5) and comments,
+ *                               answers the re-rated product as JSON
+ * GET  /products/{id}/report    the product report as text
+ * GET  /report?offset=&amp;limit=   the catalog report as text, best rated first,
+ *                               at most 1000 products from an offset of at
+ *                               most 10000 per request
+ * GET  /report?after=&amp;limit=    the same, continuing after the product id
+ *                               that ended the previous page
+ * GET  /discounts               discount totals by rating as JSON
+ * </pre>
+ * Each request runs on its own thread from a fixed pool, so a slow report
+ * never holds up lookups queued behind it on the accepting thread. Latency
+ * per endpoint is recorded in the manager's metrics as
+ * {@code http.<endpoint>.nanos}, failed requests as {@code http.errors}.
+ *
+ * @author hajadalaj
+ */
+public class ShopServer {
+
+    private static final Logger logger = Logger.getLogger(ShopServer.class.getName());
+    private static final String JSON = "application/json; charset=UTF-8";
+    private static final String TEXT = "text/plain; charset=UTF-8";
+    private static final int DEFAULT_REPORT_LIMIT = 50;
+    private static final int MAX_REPORT_LIMIT = 1000;
+    private static final int MAX_REPORT_OFFSET = 10_000;
+    private static final Comparator<Product> BEST_RATED = Comparator.comparing(Product::getRating).reversed();
+
+    static {
+        // The JDK server writes headers and body separately; with Nagle's
+        // algorithm on, each small response then waits out the client's
+        // delayed ACK, about 40 ms.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ProductManager pm;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final LatencyHistogram productNanos;
+    private final LatencyHistogram reviewNanos;
+    private final LatencyHistogram productReportNanos;
+    private final LatencyHistogram reportNanos;
+    private final LatencyHistogram discountsNanos;
+    private final LongAdder errors;
+
+    /**
+     * @param address the address to listen on, port 0 picking a free one
+     * @param threads the number of requests handled at once
+     */
+    public ShopServer(ProductManager pm, InetSocketAddress address, int threads) throws IOException {
+        this.pm = pm;
+        productNanos = pm.getMetrics().histogram("http.product.nanos");
+        reviewNanos = pm.getMetrics().histogram("http.review.nanos");
+        productReportNanos = pm.getMetrics().histogram("http.product.report.nanos");
+        reportNanos = pm.getMetrics().histogram("http.report.nanos");
+        discountsNanos = pm.getMetrics().histogram("http.discounts.nanos");
+        errors = pm.getMetrics().counter("http.errors");
+        AtomicInteger count = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "shop-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(address, threads * 16);
+        server.createContext("/products/", this::products);
+        server.createContext("/report", this::report);
+        server.createContext("/discounts", this::discounts);
+        server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        logger.log(Level.INFO, "Shop listening on {0}", server.getAddress());
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    /**
+     * Stops accepting requests and waits up to {@code delaySeconds} for the
+     * ones in flight.
+     */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+    }
+
+    private void products(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            String[] path = exchange.getRequestURI().getPath().split("/");
+            int id;
+            try {
+                id = Integer.parseInt(path[2]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException ex) {
+                fail(exchange, 404, "Unknown path");
+                return;
+            }
+            String resource = path.length > 3 ? path[3] : "";
+            switch (resource) {
+                case "":
+                    if (expect(exchange, "GET")) {
+                        Optional<Product> product = pm.lookupProduct(id);
+                        if (product.isPresent()) {
+                            send(exchange, 200, JSON, toJson(product.get()));
+                        } else {
+                            fail(exchange, 404, "Product " + id + " not found");
+                        }
+                    }
+                    productNanos.recordSince(start);
+                    break;
+                case "reviews":
+                    if (expect(exchange, "POST")) {
+                        review(exchange, id);
+                    }
+                    reviewNanos.recordSince(start);
+                    break;
+                case "report":
+                    if (expect(exchange, "GET")) {
+                        Optional<Product> product = pm.lookupProduct(id);
+                        if (product.isPresent()) {
+                            ByteArrayOutputStream report = new ByteArrayOutputStream();
+                            pm.writeProductReport(product.get(), report);
+                            send(exchange, 200, TEXT, report.toByteArray());
+                        } else {
+                            fail(exchange, 404, "Product " + id + " not found");
+                        }
+                    }
+                    productReportNanos.recordSince(start);
+                    break;
+                default:
+                    fail(exchange, 404, "Unknown path");
+            }
+        } catch (RuntimeException ex) {
+            error(exchange, ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void review(HttpExchange exchange, int id) throws IOException {
+        Map<String, String> form = parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+        int stars;
+        try {
+            stars = Integer.parseInt(form.getOrDefault("rating", ""));
+        } catch (NumberFormatException ex) {
+            stars = -1;
+        }
+        if (stars < 0 || stars >= Rating.values().length) {
+            fail(exchange, 400, "rating must be 0 to " + (Rating.values().length - 1));
+            return;
+        }
+        Product product = pm.reviewProduct(id, Rating.values()[stars], form.get("comments"));
+        if (product == null) {
+            fail(exchange, 404, "Product " + id + " not found");
+        } else {
+            send(exchange, 200, JSON, toJson(product));
+        }
+    }
+
+    private void report(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (expect(exchange, "GET")) {
+                Map<String, String> query = parseForm(exchange.getRequestURI().getRawQuery());
+                int offset;
+                int limit;
+                int afterId;
+                try {
+                    offset = Integer.parseInt(query.getOrDefault("offset", "0"));
+                    limit = Integer.parseInt(query.getOrDefault("limit", String.valueOf(DEFAULT_REPORT_LIMIT)));
+                    afterId = Integer.parseInt(query.getOrDefault("after", "0"));
+                } catch (NumberFormatException ex) {
+                    offset = -1;
+                    limit = -1;
+                    afterId = -1;
+                }
+                Optional<Product> after = afterId > 0 ? pm.lookupProduct(afterId) : Optional.empty();
+                if (offset < 0 || limit < 0 || afterId < 0) {
+                    fail(exchange, 400, "offset, limit and after must be non-negative integers");
+                } else if (limit > MAX_REPORT_LIMIT) {
+                    fail(exchange, 400, "limit must be at most " + MAX_REPORT_LIMIT);
+                } else if (offset > MAX_REPORT_OFFSET) {
+                    fail(exchange, 400, "offset must be at most " + MAX_REPORT_OFFSET + ", page on with after");
+                } else if (afterId > 0 && offset > 0) {
+                    fail(exchange, 400, "offset and after cannot be combined");
+                } else if (afterId > 0 && after.isEmpty()) {
+                    fail(exchange, 400, "Product " + afterId + " not found");
+                } else {
+                    ByteArrayOutputStream report = new ByteArrayOutputStream();
+                    Writer out = new OutputStreamWriter(report, StandardCharsets.UTF_8);
+                    if (after.isPresent()) {
+                        pm.writeProducts(p -> true, BEST_RATED, after.get(), limit, out);
+                    } else {
+                        pm.writeProducts(p -> true, BEST_RATED, offset, limit, out);
+                    }
+                    send(exchange, 200, TEXT, report.toByteArray());
+                }
+            }
+            reportNanos.recordSince(start);
+        } catch (RuntimeException ex) {
+            error(exchange, ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void discounts(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try {
+            if (expect(exchange, "GET")) {
+                StringBuilder json = new StringBuilder("{");
+                pm.getDiscounts().forEach((rating, discount) -> {
+                    if (json.length() > 1) {
+                        json.append(',');
+                    }
+                    appendString(json, rating).append(':');
+                    appendString(json, discount);
+                });
+                send(exchange, 200, JSON, json.append('}').toString());
+            }
+            discountsNanos.recordSince(start);
+        } catch (RuntimeException ex) {
+            error(exchange, ex);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean expect(HttpExchange exchange, String method) throws IOException {
+        if (method.equals(exchange.getRequestMethod())) {
+            return true;
+        }
+        exchange.getResponseHeaders().set("Allow", method);
+        fail(exchange, 405, method + " expected");
+        return false;
+    }
+
+    private void error(HttpExchange exchange, RuntimeException ex) {
+        logger.log(Level.WARNING, "Error serving " + exchange.getRequestURI(), ex);
+        try {
+            fail(exchange, 500, "Internal error");
+        } catch (IOException | RuntimeException failed) {
+            logger.log(Level.FINE, "Error response not sent", failed);
+        }
+    }
+
+    private void fail(HttpExchange exchange, int status, String message) throws IOException {
+        errors.increment();
+        send(exchange, status, TEXT, message + '\n');
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        send(exchange, status, contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Parses {@code application/x-www-form-urlencoded} text, which is also
+     * the form of a query string; {@code null} gives an empty map.
+     */
+    static Map<String, String> parseForm(String text) {
+        Map<String, String> fields = new HashMap<>();
+        if (text == null || text.isEmpty()) {
+            return fields;
+        }
+        for (String field : text.split("&")) {
+            int equals = field.indexOf('=');
+            String name = equals < 0 ? field : field.substring(0, equals);
+            String value = equals < 0 ? "" : field.substring(equals + 1);
+            fields.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return fields;
+    }
+
+    static String toJson(Product product) {
+        StringBuilder json = new StringBuilder(160);
+        json.append("{\"id\":").append(product.getId()).append(",\"name\":");
+        appendString(json, product.getName());
+        json.append(",\"price\":").append(product.getPrice().toPlainString())
+                .append(",\"discount\":").append(product.getDiscount().toPlainString())
+                .append(",\"rating\":\"").append(product.getRating().name())
+                .append("\",\"stars\":").append(product.getRating().ordinal())
+                .append(",\"bestBefore\":\"").append(product.getBestBefore())
+                .append("\",\"alcoholic\":").append(product.isAlcoholic());
+        return json.append('}').toString();
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String text) {
+        if (text == null) {
+            return json.append("null");
+        }
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"');
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+/**
+ * Point-in-time hit and miss counts of a report line cache.
+ *
+ * @author hajadalaj
+ */
+public class CacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final int size;
+
+    CacheStats(long hits, long misses, int size) {
+        this.hits = hits;
+        this.misses = misses;
+        this.size = size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public CacheStats add(CacheStats other) {
+        return new CacheStats(hits + other.hits, misses + other.misses, size + other.size);
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{" + "hits=" + hits + ", misses=" + misses + ", size=" + size + '}';
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Stream;
+
+/**
+ * Secondary indexes over the catalog entries: by current rating, by price
+ * and, for food, by best before date. Entries are added once when created
+ * and moved between rating buckets when a review changes their rating; the
+ * caller holds the entry's monitor for both so the two cannot interleave.
+ *
+ * @author hajadalaj
+ */
+class CatalogIndexes {
+
+    private final Map<Rating, Set<ProductEntry>> byRating = new EnumMap<>(Rating.class);
+    private final NavigableMap<BigDecimal, Set<ProductEntry>> byPrice = new ConcurrentSkipListMap<>();
+    private final NavigableMap<LocalDate, Set<ProductEntry>> byBestBefore = new ConcurrentSkipListMap<>();
+
+    CatalogIndexes() {
+        for (Rating rating : Rating.values()) {
+            byRating.put(rating, ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    void add(ProductEntry entry) {
+        Product product = entry.product;
+        byRating.get(product.getRating()).add(entry);
+        byPrice.computeIfAbsent(product.getPrice(), k -> ConcurrentHashMap.newKeySet()).add(entry);
+        if (product instanceof Food) {
+            byBestBefore.computeIfAbsent(product.getBestBefore(), k -> ConcurrentHashMap.newKeySet()).add(entry);
+        }
+    }
+
+    void rerate(ProductEntry entry, Rating from, Rating to) {
+        byRating.get(from).remove(entry);
+        byRating.get(to).add(entry);
+    }
+
+    /**
+     * Entries that may match the filter, read from its most selective
+     * indexed constraint: best before range, then price range, then rating.
+     * The caller still has to test each candidate against the filter.
+     *
+     * @return the candidates, or {@code null} if the filter has no indexed
+     * constraint
+     */
+    Stream<ProductEntry> candidates(ProductFilter filter) {
+        if (filter.hasBestBeforeRange()) {
+            return flatten(range(byBestBefore, filter.getBestBeforeFrom(), true, filter.getBestBeforeTo(), true));
+        }
+        if (filter.hasPriceRange()) {
+            return flatten(range(byPrice, filter.getMinPrice(), true, filter.getMaxPrice(), false));
+        }
+        if (filter.getRating() != null) {
+            return byRating.get(filter.getRating()).stream();
+        }
+        return null;
+    }
+
+    private static <K extends Comparable<? super K>> NavigableMap<K, Set<ProductEntry>> range(NavigableMap<K, Set<ProductEntry>> index,
+            K from, boolean fromInclusive, K to, boolean toInclusive) {
+        if (from != null && to != null) {
+            if (from.compareTo(to) > 0) {
+                return new ConcurrentSkipListMap<>();
+            }
+            return index.subMap(from, fromInclusive, to, toInclusive);
+        }
+        if (from != null) {
+            return index.tailMap(from, fromInclusive);
+        }
+        return to != null ? index.headMap(to, toInclusive) : index;
+    }
+
+    private static Stream<ProductEntry> flatten(NavigableMap<?, Set<ProductEntry>> index) {
+        return index.values().stream().flatMap(Set::stream);
+    }
+
+}
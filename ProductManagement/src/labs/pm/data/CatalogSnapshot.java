@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+
+/**
+ * Binary snapshot of the catalog. Layout, big-endian:
+ * <pre>
+ * header   magic "PMSN", format version, creation time in epoch millis
+ * product  type 'F' or 'D', id, name, price scale and unscaled bytes, rating,
+ *          best before epoch day (F) or alcoholic flag (D), sequence number
+ *          of the last logged change, review count, then per review its
+ *          rating and comments
+ * deferred type 'R', product id, sequence number of the last logged review,
+ *          review count, then the reviews as above
+ * trailer  product count, review count including deferred reviews, CRC32
+ *          of everything before it
+ * </pre>
+ * Strings are UTF-8 prefixed with their byte length, -1 standing for
+ * {@code null}. Snapshots are written through a {@code FileChannel} into a
+ * temporary file that replaces the target only once complete, and read
+ * back from a memory mapping after the checksum has been verified. Version 1
+ * snapshots, written before products carried a sequence number, and version
+ * 2 snapshots, written before deferred reviews were kept, are still read.
+ *
+ * @author hajadalaj
+ */
+class CatalogSnapshot {
+
+    private static final int MAGIC = 0x504D534E;
+    private static final int VERSION = 3;
+    private static final byte DEFERRED = 'R';
+    private static final int HEADER_SIZE = 16;
+    private static final int TRAILER_SIZE = 16;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private CatalogSnapshot() {
+    }
+
+    static void write(Iterator<ProductEntry> entries, List<DeferredReviews> deferred, Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Writer out = new Writer(channel);
+            out.buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+            int productCount = 0;
+            long reviewCount = 0;
+            while (entries.hasNext()) {
+                ProductEntry entry = entries.next();
+                Product product;
+                ReviewStore.Snapshot reviews;
+                long lsn;
+                synchronized (entry) {
+                    product = entry.product;
+                    reviews = entry.reviews();
+                    lsn = entry.lsn;
+                }
+                out.write(encode(product));
+                out.ensure(Long.BYTES + Integer.BYTES);
+                out.buffer.putLong(lsn).putInt(reviews.size());
+                for (Review review : reviews) {
+                    out.writeReview(review);
+                }
+                productCount++;
+                reviewCount += reviews.size();
+            }
+            for (DeferredReviews pending : deferred) {
+                out.ensure(1 + Integer.BYTES + Long.BYTES + Integer.BYTES);
+                out.buffer.put(DEFERRED).putInt(pending.id).putLong(pending.lsn).putInt(pending.reviews.size());
+                for (Review review : pending.reviews) {
+                    out.writeReview(review);
+                }
+                reviewCount += pending.reviews.size();
+            }
+            out.ensure(TRAILER_SIZE);
+            out.buffer.putInt(productCount).putLong(reviewCount);
+            out.flush();
+            out.buffer.putInt((int) out.crc.getValue());
+            out.buffer.flip();
+            while (out.buffer.hasRemaining()) {
+                channel.write(out.buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshot, passing each product to {@code adder}, which
+     * returns its new catalog entry or {@code null} to skip the product and
+     * its reviews, then the deferred reviews to {@code deferrer}.
+     */
+    static ImportSummary read(Path file, Function<Product, ProductEntry> adder, Consumer<DeferredReviews> deferrer)
+            throws IOException, ProductManagerException {
+        ImportSummary summary = new ImportSummary();
+        long start = System.nanoTime();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE + TRAILER_SIZE || channel.size() > Integer.MAX_VALUE) {
+                throw new ProductManagerException("Invalid snapshot size " + channel.size() + " of " + file);
+            }
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != MAGIC) {
+                throw new ProductManagerException("Not a catalog snapshot: " + file);
+            }
+            int version = in.getInt();
+            if (version < 1 || version > VERSION) {
+                throw new ProductManagerException("Unsupported snapshot version " + version + " of " + file);
+            }
+            int end = in.limit() - TRAILER_SIZE;
+            CRC32 crc = new CRC32();
+            crc.update(in.duplicate().position(0).limit(in.limit() - Integer.BYTES));
+            if ((int) crc.getValue() != in.getInt(in.limit() - Integer.BYTES)) {
+                throw new ProductManagerException("Snapshot checksum mismatch: " + file);
+            }
+            in.position(HEADER_SIZE);
+            long reviewsRead = 0;
+            int productsRead = 0;
+            while (in.position() < end) {
+                if (in.get(in.position()) == DEFERRED) {
+                    in.get();
+                    DeferredReviews pending = new DeferredReviews(in.getInt());
+                    long lsn = in.getLong();
+                    int reviewCount = in.getInt();
+                    reviewsRead += reviewCount;
+                    for (int i = 0; i < reviewCount; i++) {
+                        Rating rating = Rateable.convert(in.get());
+                        pending.add(new Review(rating, CatalogSnapshot.toString(readBytes(in))), lsn);
+                        summary.record(ImportSummary.Status.DEFERRED);
+                    }
+                    deferrer.accept(pending);
+                    continue;
+                }
+                Product product = decode(in);
+                productsRead++;
+                long lsn = version > 1 ? in.getLong() : 0;
+                ProductEntry entry = adder.apply(product);
+                if (entry != null) {
+                    synchronized (entry) {
+                        entry.lsn = Math.max(entry.lsn, lsn);
+                    }
+                }
+                summary.record(entry == null ? ImportSummary.Status.REJECTED : ImportSummary.Status.LOADED);
+                int reviewCount = in.getInt();
+                reviewsRead += reviewCount;
+                for (int i = 0; i < reviewCount; i++) {
+                    Rating rating = Rateable.convert(in.get());
+                    byte[] comments = readBytes(in);
+                    if (entry != null) {
+                        entry.restoreReview(rating, comments);
+                    }
+                }
+            }
+            if (productsRead != in.getInt(end)) {
+                throw new ProductManagerException("Snapshot product count mismatch: " + file);
+            }
+            if (reviewsRead != in.getLong(end + Integer.BYTES)) {
+                throw new ProductManagerException("Snapshot review count mismatch: " + file);
+            }
+        } catch (RuntimeException ex) {
+            throw new ProductManagerException("Corrupt snapshot " + file, ex);
+        }
+        summary.setElapsedNanos(System.nanoTime() - start);
+        return summary;
+    }
+
+    /**
+     * Encodes the product fields, without reviews, into a new buffer ready
+     * to be read.
+     */
+    static ByteBuffer encode(Product product) {
+        byte[] name = toBytes(product.getName());
+        byte[] unscaled = product.getPrice().unscaledValue().toByteArray();
+        ByteBuffer out = ByteBuffer.allocate(1 + Integer.BYTES + sizeOf(name) + Integer.BYTES + sizeOf(unscaled)
+                + 1 + (product instanceof Food ? Long.BYTES : 1));
+        out.put((byte) (product instanceof Food ? 'F' : 'D')).putInt(product.getId());
+        putBytes(out, name);
+        out.putInt(product.getPrice().scale());
+        putBytes(out, unscaled);
+        out.put((byte) product.getRating().ordinal());
+        if (product instanceof Food) {
+            out.putLong(product.getBestBefore().toEpochDay());
+        } else {
+            out.put((byte) (product.isAlcoholic() ? 1 : 0));
+        }
+        return out.flip();
+    }
+
+    static Product decode(ByteBuffer in) throws ProductManagerException {
+        byte type = in.get();
+        int id = in.getInt();
+        String name = toString(readBytes(in));
+        int scale = in.getInt();
+        BigDecimal price = new BigDecimal(new BigInteger(readBytes(in)), scale);
+        Rating rating = Rateable.convert(in.get());
+        switch (type) {
+            case 'F':
+                return new Food(id, name, price, rating, LocalDate.ofEpochDay(in.getLong()));
+            case 'D':
+                return new Drink(id, name, price, rating, in.get() != 0);
+            default:
+                throw new ProductManagerException("Unknown product type " + type + " in snapshot");
+        }
+    }
+
+    static byte[] readBytes(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    static void putBytes(ByteBuffer out, byte[] bytes) {
+        if (bytes == null) {
+            out.putInt(-1);
+        } else {
+            out.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    static int sizeOf(byte[] bytes) {
+        return Integer.BYTES + (bytes == null ? 0 : bytes.length);
+    }
+
+    static byte[] toBytes(String text) {
+        return text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String toString(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static class Writer {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+
+        private Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void writeReview(Review review) throws IOException {
+            ensure(1);
+            buffer.put((byte) review.getRating().ordinal());
+            writeString(review.getComments());
+        }
+
+        private void writeString(String text) throws IOException {
+            byte[] bytes = toBytes(text);
+            ensure(Integer.BYTES);
+            buffer.putInt(bytes == null ? -1 : bytes.length);
+            if (bytes != null) {
+                write(ByteBuffer.wrap(bytes));
+            }
+        }
+
+        private void write(ByteBuffer source) throws IOException {
+            while (source.hasRemaining()) {
+                ensure(1);
+                int length = Math.min(buffer.remaining(), source.remaining());
+                buffer.put(source.duplicate().limit(source.position() + length));
+                source.position(source.position() + length);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+}
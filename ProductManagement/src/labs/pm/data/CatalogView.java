@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Immutable, versioned view of the catalog's products. Each change to the
+ * catalog publishes a new view; a reader that holds one sees the catalog as
+ * it was at that version however long it takes, without locking.
+ * <p>
+ * The products sit in a persistent bitmapped trie keyed by id, most
+ * significant bits first, so a new view copies only the nodes on the path
+ * to the changed product, at most seven, and shares the rest with its
+ * predecessor. Products are iterated in ascending id order.
+ *
+ * @author hajadalaj
+ */
+public final class CatalogView {
+
+    private static final int BITS = 5;
+    private static final int TOP_SHIFT = 30;
+
+    static final CatalogView EMPTY = new CatalogView(Node.EMPTY, 0, 0);
+
+    private final Node root;
+    private final int size;
+    private final long version;
+
+    private CatalogView(Node root, int size, long version) {
+        this.root = root;
+        this.size = size;
+        this.version = version;
+    }
+
+    /**
+     * Number of changes published before this view.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Optional<Product> lookupProduct(int id) {
+        return Optional.ofNullable(get(id));
+    }
+
+    Product get(int id) {
+        Node node = root;
+        for (int shift = TOP_SHIFT;; shift -= BITS) {
+            int bit = bit(id, shift);
+            if ((node.bitmap & bit) == 0) {
+                return null;
+            }
+            Object slot = node.slots[node.index(bit)];
+            if (slot instanceof Node) {
+                node = (Node) slot;
+            } else {
+                Product product = (Product) slot;
+                return product.getId() == id ? product : null;
+            }
+        }
+    }
+
+    /**
+     * The view with the product added, or replacing the product with the
+     * same id.
+     */
+    CatalogView with(Product product) {
+        boolean added = get(product.getId()) == null;
+        return new CatalogView(root.with(product, TOP_SHIFT), added ? size + 1 : size, version + 1);
+    }
+
+    public Stream<Product> products() {
+        return StreamSupport.stream(Spliterators.spliterator(new ProductIterator(root), size,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
+    private static int bit(int id, int shift) {
+        return 1 << ((id >>> shift) & ((1 << BITS) - 1));
+    }
+
+    private static class Node {
+
+        private static final Node EMPTY = new Node(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] slots;
+
+        private Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private Node with(Product product, int shift) {
+            int bit = bit(product.getId(), shift);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] inserted = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, inserted, 0, i);
+                inserted[i] = product;
+                System.arraycopy(slots, i, inserted, i + 1, slots.length - i);
+                return new Node(bitmap | bit, inserted);
+            }
+            Object slot = slots[i];
+            Object replacement;
+            if (slot instanceof Node) {
+                replacement = ((Node) slot).with(product, shift - BITS);
+            } else if (((Product) slot).getId() == product.getId()) {
+                replacement = product;
+            } else {
+                replacement = EMPTY.with((Product) slot, shift - BITS).with(product, shift - BITS);
+            }
+            Object[] copy = Arrays.copyOf(slots, slots.length);
+            copy[i] = replacement;
+            return new Node(bitmap, copy);
+        }
+    }
+
+    private static class ProductIterator implements Iterator<Product> {
+
+        private final Node[] nodes = new Node[TOP_SHIFT / BITS + 1];
+        private final int[] positions = new int[nodes.length];
+        private int depth;
+        private Product next;
+
+        private ProductIterator(Node root) {
+            nodes[0] = root;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Node node = nodes[depth];
+                if (positions[depth] == node.slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = node.slots[positions[depth]++];
+                if (slot instanceof Node) {
+                    depth++;
+                    nodes[depth] = (Node) slot;
+                    positions[depth] = 0;
+                } else {
+                    next = (Product) slot;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Product next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Product product = next;
+            advance();
+            return product;
+        }
+    }
+
+}
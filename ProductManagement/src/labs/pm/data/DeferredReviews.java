@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reviews of a product id not in the catalog yet, kept until the product is
+ * created, with the sequence number of the last of them to be logged.
+ * Snapshots carry them, so replay can tell which logged reviews they
+ * already hold.
+ *
+ * @author hajadalaj
+ */
+class DeferredReviews {
+
+    final int id;
+    final List<Review> reviews = new ArrayList<>();
+    long lsn;
+
+    DeferredReviews(int id) {
+        this.id = id;
+    }
+
+    void add(Review review, long lsn) {
+        reviews.add(review);
+        this.lsn = Math.max(this.lsn, lsn);
+    }
+
+    DeferredReviews copy() {
+        DeferredReviews copy = new DeferredReviews(id);
+        copy.reviews.addAll(reviews);
+        copy.lsn = lsn;
+        return copy;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Running discount totals per rating, kept as decimals at a scale of 2 so
+ * sums are exact however large the prices. The
+ * catalog's time-dependent discounts are bucketed by the condition that
+ * enables them: alcoholic drinks by the happy hour window, food by best
+ * before date. A read then only picks the buckets active at that moment
+ * instead of asking every product for its discount.
+ * <p>
+ * Updates take the write lock, so a re-rated product moves between ratings
+ * in one step. Reads are optimistic and retried, falling back to the read
+ * lock only if writers keep interfering.
+ *
+ * @author hajadalaj
+ */
+class DiscountTotals {
+
+    private static final int RATINGS = Rating.values().length;
+    private static final int OPTIMISTIC_READS = 8;
+    private static final BigDecimal ZERO = BigDecimal.valueOf(0, 2);
+
+    private final AtomicLongArray productCounts = new AtomicLongArray(RATINGS);
+    private final AtomicReferenceArray<BigDecimal> happyHourTotals = zeros();
+    private final Map<LocalDate, AtomicReferenceArray<BigDecimal>> bestBeforeTotals = new ConcurrentHashMap<>();
+    private final StampedLock lock = new StampedLock();
+
+    void add(Product product) {
+        long stamp = lock.writeLock();
+        try {
+            update(product, 1);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void rerate(Product before, Product after) {
+        long stamp = lock.writeLock();
+        try {
+            update(before, -1);
+            update(after, 1);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Discount totals by rating, for every rating that has products.
+     */
+    Map<Rating, BigDecimal> totals(boolean happyHour, LocalDate today) {
+        long[] counts = new long[RATINGS];
+        BigDecimal[] discounts = new BigDecimal[RATINGS];
+        boolean read = false;
+        for (int attempt = 0; attempt < OPTIMISTIC_READS && !read; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            read(happyHour, today, counts, discounts);
+            read = lock.validate(stamp);
+        }
+        if (!read) {
+            long stamp = lock.readLock();
+            try {
+                read(happyHour, today, counts, discounts);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        Map<Rating, BigDecimal> totals = new EnumMap<>(Rating.class);
+        for (Rating rating : Rating.values()) {
+            int i = rating.ordinal();
+            if (counts[i] > 0) {
+                totals.put(rating, discounts[i]);
+            }
+        }
+        return totals;
+    }
+
+    private void read(boolean happyHour, LocalDate today, long[] counts, BigDecimal[] discounts) {
+        AtomicReferenceArray<BigDecimal> expiring = bestBeforeTotals.get(today);
+        for (int i = 0; i < RATINGS; i++) {
+            counts[i] = productCounts.get(i);
+            BigDecimal discount = happyHour ? happyHourTotals.get(i) : ZERO;
+            discounts[i] = expiring == null ? discount : discount.add(expiring.get(i));
+        }
+    }
+
+    private void update(Product product, int sign) {
+        int i = product.getRating().ordinal();
+        productCounts.addAndGet(i, sign);
+        BigDecimal discount = sign < 0 ? product.getBaseDiscount().negate() : product.getBaseDiscount();
+        if (product instanceof Food) {
+            AtomicReferenceArray<BigDecimal> totals = bestBeforeTotals.computeIfAbsent(product.getBestBefore(), d -> zeros());
+            totals.set(i, totals.get(i).add(discount));
+        } else if (product instanceof Drink && product.isAlcoholic()) {
+            happyHourTotals.set(i, happyHourTotals.get(i).add(discount));
+        }
+    }
+
+    private static AtomicReferenceArray<BigDecimal> zeros() {
+        AtomicReferenceArray<BigDecimal> totals = new AtomicReferenceArray<>(RATINGS);
+        for (int i = 0; i < RATINGS; i++) {
+            totals.set(i, ZERO);
+        }
+        return totals;
+    }
+
+}
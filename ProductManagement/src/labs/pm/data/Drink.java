@@ -25,6 +25,8 @@ import java.time.LocalTime;
  */
 public final class Drink extends Product {
 
+    static final LocalTime HAPPY_HOUR_START = LocalTime.of(17, 30);
+    static final LocalTime HAPPY_HOUR_END = LocalTime.of(19, 0);
     private boolean alcoholic;
 
     Drink(int id, String name, BigDecimal price, Rating rating, boolean alcoholic) {
@@ -49,11 +51,14 @@ public final class Drink extends Product {
 
     @Override
     public BigDecimal getDiscount() {
-        LocalTime now = LocalTime.now();
-        return (now.isAfter(LocalTime.of(17, 30)) && now.isBefore(LocalTime.of(19, 0)) && this.isAlcoholic())
+        return (PricingClock.current().isHappyHour() && this.isAlcoholic())
                 ? super.getDiscount() : BigDecimal.ZERO;
     }
 
+    static boolean isHappyHour(LocalTime time) {
+        return time.isAfter(HAPPY_HOUR_START) && time.isBefore(HAPPY_HOUR_END);
+    }
+
     @Override
     public Product applyRating(Rating newRating) {
         return new Drink(getId(), getName(), getPrice(), newRating, this.alcoholic);
@@ -49,7 +49,7 @@ public final class Food extends Product {
 
     @Override
     public BigDecimal getDiscount() {
-        return (bestBefore.isEqual(LocalDate.now())) ? super.getDiscount() : BigDecimal.ZERO;
+        return (bestBefore.isEqual(PricingClock.current().today())) ? super.getDiscount() : BigDecimal.ZERO;
     }
 
     @Override
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Parallel import of separated record lines. A reader stage cuts the input
+ * into chunks, a pool of parser workers turns chunks into records, and the
+ * calling thread applies the parsed batches in input order, so the outcome is
+ * the same as a sequential import of the same lines. Both hand-off queues are
+ * bounded, which keeps the reader from running ahead of the workers and the
+ * workers from running ahead of the applier. The reader also takes a permit
+ * per chunk that the applier returns once the chunk is applied, so batches
+ * parsed ahead of a stalled worker cannot pile up waiting for their turn.
+ * A worker that fails hands the applier a failed batch in place of its
+ * chunk, which ends the import with the worker's exception.
+ *
+ * @author hajadalaj
+ * @param <T> the record type produced by the parser stage
+ */
+class ImportPipeline<T> {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    private final char separator;
+    private final int parallelism;
+    private final Function<RecordParser, T> reader;
+    private final Function<T, ImportSummary.Status> applier;
+
+    /**
+     * @param reader parses one line, returning {@code null} when it is
+     * malformed; called concurrently, each worker with its own parser
+     * @param applier applies one record to the catalog; called from the
+     * importing thread only
+     */
+    ImportPipeline(char separator, int parallelism, Function<RecordParser, T> reader, Function<T, ImportSummary.Status> applier) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.separator = separator;
+        this.parallelism = parallelism;
+        this.reader = reader;
+        this.applier = applier;
+    }
+
+    ImportSummary run(BufferedReader lines) throws IOException {
+        ImportSummary summary = new ImportSummary();
+        BlockingQueue<Chunk> chunks = new ArrayBlockingQueue<>(parallelism * 2);
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(parallelism * 2);
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism + 1);
+        long start = System.nanoTime();
+        try {
+            Future<?> readStage = pool.submit(() -> {
+                read(lines, chunks, inFlight);
+                return null;
+            });
+            List<Future<?>> parseStage = new ArrayList<>();
+            for (int i = 0; i < parallelism; i++) {
+                parseStage.add(pool.submit(() -> {
+                    parse(chunks, batches);
+                    return null;
+                }));
+            }
+            apply(batches, summary, inFlight);
+            readStage.get();
+            for (Future<?> worker : parseStage) {
+                worker.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Import interrupted");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        summary.setElapsedNanos(System.nanoTime() - start);
+        return summary;
+    }
+
+    private void read(BufferedReader lines, BlockingQueue<Chunk> chunks, Semaphore inFlight) throws IOException, InterruptedException {
+        try {
+            long seq = 0;
+            String[] chunk = new String[CHUNK_SIZE];
+            int size = 0;
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                chunk[size++] = line;
+                if (size == CHUNK_SIZE) {
+                    inFlight.acquire();
+                    chunks.put(new Chunk(seq++, chunk, size));
+                    chunk = new String[CHUNK_SIZE];
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                inFlight.acquire();
+                chunks.put(new Chunk(seq, chunk, size));
+            }
+        } finally {
+            for (int i = 0; i < parallelism; i++) {
+                chunks.put(Chunk.END);
+            }
+        }
+    }
+
+    private void parse(BlockingQueue<Chunk> chunks, BlockingQueue<Batch> batches) throws InterruptedException {
+        RecordParser parser = new RecordParser(separator);
+        try {
+            for (Chunk chunk; (chunk = chunks.take()) != Chunk.END;) {
+                Object[] records = new Object[chunk.size];
+                try {
+                    for (int i = 0; i < chunk.size; i++) {
+                        records[i] = reader.apply(parser.reset(chunk.lines[i]));
+                    }
+                } catch (RuntimeException ex) {
+                    batches.put(new Batch(chunk.seq, ex));
+                    throw ex;
+                }
+                batches.put(new Batch(chunk.seq, records));
+            }
+        } finally {
+            batches.put(Batch.END);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void apply(BlockingQueue<Batch> batches, ImportSummary summary, Semaphore inFlight) throws InterruptedException, ExecutionException {
+        Map<Long, Batch> early = new HashMap<>();
+        long next = 0;
+        for (int finished = 0; finished < parallelism;) {
+            Batch batch = batches.take();
+            if (batch == Batch.END) {
+                finished++;
+                continue;
+            }
+            if (batch.failure != null) {
+                throw new ExecutionException(batch.failure);
+            }
+            early.put(batch.seq, batch);
+            for (Batch ready; (ready = early.remove(next)) != null; next++) {
+                for (Object record : ready.records) {
+                    summary.record(record == null ? ImportSummary.Status.MALFORMED : applier.apply((T) record));
+                }
+                inFlight.release();
+            }
+        }
+    }
+
+    private static class Chunk {
+
+        private static final Chunk END = new Chunk(-1, null, 0);
+
+        private final long seq;
+        private final String[] lines;
+        private final int size;
+
+        private Chunk(long seq, String[] lines, int size) {
+            this.seq = seq;
+            this.lines = lines;
+            this.size = size;
+        }
+    }
+
+    private static class Batch {
+
+        private static final Batch END = new Batch(-1, (Object[]) null);
+
+        private final long seq;
+        private final Object[] records;
+        private final RuntimeException failure;
+
+        private Batch(long seq, Object[] records) {
+            this.seq = seq;
+            this.records = records;
+            this.failure = null;
+        }
+
+        private Batch(long seq, RuntimeException failure) {
+            this.seq = seq;
+            this.records = null;
+            this.failure = failure;
+        }
+    }
+
+}
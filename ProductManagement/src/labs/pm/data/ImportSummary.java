@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+/**
+ * Outcome of a bulk import: how many lines were loaded, rejected because
+ * they conflict with the catalog, deferred until the product they refer to
+ * exists, or could not be parsed at all.
+ *
+ * @author hajadalaj
+ */
+public class ImportSummary {
+
+    enum Status {
+        LOADED, REJECTED, DEFERRED, MALFORMED
+    }
+
+    private long loaded;
+    private long rejected;
+    private long deferred;
+    private long malformed;
+    private long elapsedNanos;
+
+    void record(Status status) {
+        switch (status) {
+            case LOADED:
+                loaded++;
+                break;
+            case REJECTED:
+                rejected++;
+                break;
+            case DEFERRED:
+                deferred++;
+                break;
+            case MALFORMED:
+                malformed++;
+        }
+    }
+
+    void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getLoaded() {
+        return loaded;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDeferred() {
+        return deferred;
+    }
+
+    public long getMalformed() {
+        return malformed;
+    }
+
+    public long getLines() {
+        return loaded + rejected + deferred + malformed;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public double getLinesPerSecond() {
+        return elapsedNanos == 0 ? 0 : getLines() * 1_000_000_000d / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "ImportSummary{" + "loaded=" + loaded + ", rejected=" + rejected + ", deferred=" + deferred + ", malformed=" + malformed
+                + ", linesPerSecond=" + Math.round(getLinesPerSecond()) + '}';
+    }
+
+}
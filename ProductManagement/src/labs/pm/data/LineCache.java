@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of rendered report lines. A line is cached under its
+ * source object and is only reused for that very instance: a product
+ * re-rated through {@code applyRating} is a new instance, so its stale line
+ * is re-rendered and replaced on the next lookup.
+ *
+ * @author hajadalaj
+ * @param <K> the type of the rendered objects
+ */
+class LineCache<K> {
+
+    private final Map<K, Line> lines;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    LineCache(int capacity) {
+        lines = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Line> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    String get(K source, Function<K, String> renderer) {
+        Line line;
+        synchronized (lines) {
+            line = lines.get(source);
+        }
+        if (line != null && line.source == source) {
+            hits.increment();
+            return line.text;
+        }
+        misses.increment();
+        String text = renderer.apply(source);
+        synchronized (lines) {
+            lines.put(source, new Line(source, text));
+        }
+        return text;
+    }
+
+    CacheStats stats() {
+        int size;
+        synchronized (lines) {
+            size = lines.size();
+        }
+        return new CacheStats(hits.sum(), misses.sum(), size);
+    }
+
+    private static class Line {
+
+        private final Object source;
+        private final String text;
+
+        private Line(Object source, String text) {
+            this.source = source;
+            this.text = text;
+        }
+    }
+
+}
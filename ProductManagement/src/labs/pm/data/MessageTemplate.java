@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code MessageFormat} pattern compiled once into literal text and
+ * argument slots. Rendering only concatenates, so no pattern is parsed per
+ * call, and instances are immutable and safe to share between threads.
+ * <p>
+ * Supports the subset of the pattern syntax used by the resource bundles:
+ * plain {@code {n}} arguments, quoted literal text and {@code ''} for a
+ * single quote. Arguments are rendered with {@code String.valueOf}, so
+ * numbers and dates must be formatted by the caller.
+ *
+ * @author hajadalaj
+ */
+class MessageTemplate {
+
+    private final String[] literals;
+    private final int[] arguments;
+    private final int length;
+
+    MessageTemplate(String pattern) {
+        List<String> literalList = new ArrayList<>();
+        List<Integer> argumentList = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '\'') {
+                if (i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if (c == '{' && !quoted) {
+                int close = pattern.indexOf('}', i);
+                if (close < 0) {
+                    throw new IllegalArgumentException("Unmatched braces in the pattern " + pattern);
+                }
+                String index = pattern.substring(i + 1, close).trim();
+                try {
+                    argumentList.add(Integer.parseInt(index));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Unsupported argument {" + index + "} in the pattern " + pattern);
+                }
+                literalList.add(literal.toString());
+                literal.setLength(0);
+                i = close;
+            } else {
+                literal.append(c);
+            }
+        }
+        literalList.add(literal.toString());
+        literals = literalList.toArray(new String[0]);
+        arguments = argumentList.stream().mapToInt(Integer::intValue).toArray();
+        length = literalList.stream().mapToInt(String::length).sum();
+    }
+
+    String format(Object... args) {
+        StringBuilder text = new StringBuilder(length + 16 * arguments.length);
+        for (int i = 0; i < arguments.length; i++) {
+            text.append(literals[i]);
+            int index = arguments[i];
+            text.append(index < args.length ? String.valueOf(args[index]) : "{" + index + "}");
+        }
+        return text.append(literals[arguments.length]).toString();
+    }
+
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Named counters and latency histograms. Metrics are created on first
+ * request and live as long as the registry; callers keep the returned
+ * {@code LongAdder} or {@link LatencyHistogram} and record into it directly,
+ * which neither locks nor allocates.
+ * <p>
+ * The values can be read as a {@link MetricsSnapshot}, pushed periodically
+ * to any {@link Reporter}, or published as a JMX MBean whose attributes are
+ * the counters and, per histogram, its count, mean, percentiles and maximum.
+ *
+ * @author hajadalaj
+ */
+public final class MetricsRegistry {
+
+    private static final String[] HISTOGRAM_ATTRIBUTES = {"count", "mean", "p50", "p90", "p99", "p999", "max"};
+
+    private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+    private static ScheduledExecutorService scheduler;
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.sum()));
+        Map<String, LatencyHistogram.Summary> summaries = new TreeMap<>();
+        histograms.forEach((name, histogram) -> summaries.put(name, histogram.summary()));
+        return new MetricsSnapshot(Instant.now(), counterValues, summaries);
+    }
+
+    /**
+     * Passes a snapshot to the reporter every {@code period} on a shared
+     * background thread until the returned future is cancelled. A reporter
+     * that throws is logged and keeps being called.
+     */
+    public ScheduledFuture<?> addReporter(Reporter reporter, Duration period) {
+        long nanos = period.toNanos();
+        return scheduler().scheduleAtFixedRate(() -> {
+            try {
+                reporter.report(snapshot());
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Metrics reporter failed", ex);
+            }
+        }, nanos, nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    /**
+     * Publishes the registry on the platform MBean server under
+     * {@code objectName}, for example
+     * {@code "labs.pm.data:type=ProductManager,name=shop"}.
+     */
+    public ObjectName registerMBean(String objectName) throws JMException {
+        ObjectName name = new ObjectName(objectName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new RegistryMBean(), name);
+        return name;
+    }
+
+    @FunctionalInterface
+    public interface Reporter {
+
+        void report(MetricsSnapshot snapshot);
+    }
+
+    private class RegistryMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            LongAdder counter = counters.get(attribute);
+            if (counter != null) {
+                return counter.sum();
+            }
+            int dot = attribute.lastIndexOf('.');
+            LatencyHistogram histogram = dot < 0 ? null : histograms.get(attribute.substring(0, dot));
+            if (histogram != null) {
+                LatencyHistogram.Summary summary = histogram.summary();
+                switch (attribute.substring(dot + 1)) {
+                    case "count":
+                        return summary.getCount();
+                    case "mean":
+                        return summary.getMean();
+                    case "p50":
+                        return summary.getP50();
+                    case "p90":
+                        return summary.getP90();
+                    case "p99":
+                        return summary.getP99();
+                    case "p999":
+                        return summary.getP999();
+                    case "max":
+                        return summary.getMax();
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList values = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    values.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException ex) {
+                    // left out, as the DynamicMBean contract asks
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> attributes = new ArrayList<>();
+            for (String name : counters.keySet()) {
+                attributes.add(attribute(name, Long.class, "Counter"));
+            }
+            for (String name : histograms.keySet()) {
+                for (String part : HISTOGRAM_ATTRIBUTES) {
+                    attributes.add(attribute(name + '.' + part, part.equals("mean") ? Double.class : Long.class, "Histogram " + part));
+                }
+            }
+            return new MBeanInfo(MetricsRegistry.class.getName(), "Product manager metrics",
+                    attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        private MBeanAttributeInfo attribute(String name, Class<?> type, String description) {
+            return new MBeanAttributeInfo(name, type.getName(), description, true, false, false);
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Values of all metrics of a {@link MetricsRegistry} at one point in time,
+ * by metric name in name order.
+ *
+ * @author hajadalaj
+ */
+public final class MetricsSnapshot {
+
+    private final Instant time;
+    private final Map<String, Long> counters;
+    private final Map<String, LatencyHistogram.Summary> histograms;
+
+    MetricsSnapshot(Instant time, Map<String, Long> counters, Map<String, LatencyHistogram.Summary> histograms) {
+        this.time = time;
+        this.counters = Collections.unmodifiableMap(counters);
+        this.histograms = Collections.unmodifiableMap(histograms);
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    public Map<String, Long> getCounters() {
+        return counters;
+    }
+
+    public Map<String, LatencyHistogram.Summary> getHistograms() {
+        return histograms;
+    }
+
+    public long getCounter(String name) {
+        return counters.getOrDefault(name, 0L);
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" + "time=" + time + ", counters=" + counters + ", histograms=" + histograms + '}';
+    }
+
+}
@@ -0,0 +1,432 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of catalog changes, kept in segment files named after the
+ * sequence number of their first record. Record layout, big-endian:
+ * <pre>
+ * record   length of the rest, type 'P' or 'R', sequence number, payload,
+ *          CRC32 of type, sequence number and payload
+ * product  the product encoded as in {@link CatalogSnapshot}
+ * review   product id, rating, comments
+ * </pre>
+ * With group commit, appended records are buffered and a flusher thread
+ * writes and forces them in batches, so concurrent writers share one
+ * {@code force}. While a batch is forced outside the lock the next one
+ * builds up; a batch is written once its first record has waited the commit
+ * interval, which may be zero, or as soon as {@code commitBytes} are waiting.
+ * Without group commit every append is written and forced before it returns.
+ * <p>
+ * I/O failures are thrown as {@code UncheckedIOException}, since they
+ * surface through catalog methods that do not declare them; once a write
+ * has failed, every later append fails too.
+ *
+ * @author hajadalaj
+ */
+class MutationLog implements Closeable {
+
+    static final byte PRODUCT = 'P';
+    static final byte REVIEW = 'R';
+
+    private static final String SEGMENT_PREFIX = "mutations-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int RECORD_OVERHEAD = 1 + Long.BYTES + Integer.BYTES;
+
+    private static final Logger logger = Logger.getLogger(MutationLog.class.getName());
+
+    private final Path directory;
+    private final boolean groupCommit;
+    private final long commitNanos;
+    private final int commitBytes;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer pending;
+    private ByteBuffer spare;
+    private long firstPendingNanos;
+    private boolean flushing;
+    private FileChannel channel;
+    private Path segment;
+    private long segmentSize;
+    private long nextLsn;
+    private long durableLsn;
+    private IOException failure;
+    private boolean closed;
+    private final Thread flusher;
+
+    /**
+     * Starts a new segment in {@code directory} whose first record will get
+     * {@code nextLsn}.
+     */
+    MutationLog(Path directory, long nextLsn, boolean groupCommit, Duration commitInterval, int commitBytes) throws IOException {
+        this.directory = directory;
+        this.groupCommit = groupCommit;
+        this.commitNanos = commitInterval.toNanos();
+        this.commitBytes = commitBytes;
+        this.nextLsn = nextLsn;
+        this.durableLsn = nextLsn - 1;
+        pending = ByteBuffer.allocate(Math.max(commitBytes, 4096) + 4096);
+        spare = ByteBuffer.allocate(pending.capacity());
+        openSegment();
+        if (groupCommit) {
+            flusher = new Thread(this::flushLoop, "mutation-log-flusher");
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            flusher = null;
+        }
+    }
+
+    static ByteBuffer product(Product product) {
+        return CatalogSnapshot.encode(product);
+    }
+
+    static ByteBuffer review(int id, Review review) {
+        byte[] comments = CatalogSnapshot.toBytes(review.getComments());
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES + 1 + CatalogSnapshot.sizeOf(comments));
+        out.putInt(id).put((byte) review.getRating().ordinal());
+        CatalogSnapshot.putBytes(out, comments);
+        return out.flip();
+    }
+
+    /**
+     * Reads the review of a review payload whose product id has already
+     * been read.
+     */
+    static Review readReview(ByteBuffer payload) {
+        Rating rating = Rateable.convert(payload.get());
+        return new Review(rating, CatalogSnapshot.toString(CatalogSnapshot.readBytes(payload)));
+    }
+
+    /**
+     * Appends the record and returns its sequence number. The record is
+     * durable once {@link #awaitDurable(long)} returns for that number.
+     */
+    synchronized long append(byte type, ByteBuffer payload) {
+        checkOpen();
+        long lsn = nextLsn++;
+        int length = RECORD_OVERHEAD + payload.remaining();
+        if (pending.remaining() < Integer.BYTES + length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + Integer.BYTES + length));
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        int start = pending.position();
+        pending.putInt(length).put(type).putLong(lsn).put(payload);
+        crc.reset();
+        crc.update(pending.duplicate().position(start + Integer.BYTES).limit(pending.position()));
+        pending.putInt((int) crc.getValue());
+        if (!groupCommit) {
+            try {
+                write();
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        } else if (start == 0) {
+            firstPendingNanos = System.nanoTime();
+            notifyAll();
+        } else if (pending.position() >= commitBytes) {
+            notifyAll();
+        }
+        return lsn;
+    }
+
+    /**
+     * Blocks until every record up to {@code lsn} has been forced to disk.
+     */
+    synchronized void awaitDurable(long lsn) {
+        boolean interrupted = false;
+        while (durableLsn < lsn && failure == null && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (durableLsn < lsn) {
+            checkOpen();
+        }
+    }
+
+    synchronized long lastLsn() {
+        return nextLsn - 1;
+    }
+
+    /**
+     * Bytes written to the current segment.
+     */
+    synchronized long segmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Forces what is pending and continues in a new segment.
+     *
+     * @return the earlier segments, whose records are all older than any
+     * record appended from now on
+     */
+    synchronized List<Path> rotate() {
+        checkOpen();
+        awaitFlush();
+        try {
+            if (pending.position() > 0) {
+                write();
+            }
+            if (segmentSize > 0) {
+                channel.close();
+                openSegment();
+            }
+            Path current = segment;
+            return segments(directory).stream()
+                    .filter(path -> !path.equals(current))
+                    .collect(Collectors.toList());
+        } catch (IOException ex) {
+            fail(ex);
+            return null;
+        }
+    }
+
+    /**
+     * Forces what is pending and closes the current segment.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            awaitFlush();
+            try {
+                if (failure == null && pending.position() > 0) {
+                    write();
+                }
+            } finally {
+                closed = true;
+                channel.close();
+                notifyAll();
+            }
+        }
+        if (flusher != null) {
+            try {
+                flusher.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replays the records of every segment in {@code directory} in sequence
+     * order, recording what the handler made of each. A segment is read up
+     * to its first incomplete or corrupt record, which a crash during a
+     * write leaves at its end.
+     *
+     * @return the highest sequence number replayed, or 0
+     */
+    static long replay(Path directory, RecordHandler handler, ImportSummary summary) throws IOException, ProductManagerException {
+        long last = 0;
+        CRC32 crc = new CRC32();
+        for (Path path : segments(directory)) {
+            try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (in.size() > Integer.MAX_VALUE) {
+                    throw new ProductManagerException("Log segment too large: " + path);
+                }
+                ByteBuffer records = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+                while (records.remaining() >= Integer.BYTES) {
+                    int length = records.getInt(records.position());
+                    if (length < RECORD_OVERHEAD || length > records.remaining() - Integer.BYTES) {
+                        break;
+                    }
+                    int start = records.position() + Integer.BYTES;
+                    int end = start + length - Integer.BYTES;
+                    crc.reset();
+                    crc.update(records.duplicate().position(start).limit(end));
+                    if ((int) crc.getValue() != records.getInt(end)) {
+                        break;
+                    }
+                    ByteBuffer record = records.duplicate().position(start).limit(end).slice();
+                    byte type = record.get();
+                    long lsn = record.getLong();
+                    try {
+                        summary.record(handler.replay(type, lsn, record.slice()));
+                    } catch (RuntimeException ex) {
+                        throw new ProductManagerException("Corrupt log record " + lsn + " in " + path, ex);
+                    }
+                    last = Math.max(last, lsn);
+                    records.position(end + Integer.BYTES);
+                }
+                if (records.hasRemaining()) {
+                    logger.log(Level.WARNING, "Ignoring {0} bytes after the last valid record of {1}",
+                            new Object[]{records.remaining(), path});
+                }
+            }
+        }
+        return last;
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(MutationLog::isSegment)
+                    .sorted(Comparator.comparingLong(MutationLog::firstLsn))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)
+                && name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()).chars().allMatch(Character::isDigit);
+    }
+
+    private static long firstLsn(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private void openSegment() throws IOException {
+        segment = directory.resolve(String.format("%s%019d%s", SEGMENT_PREFIX, nextLsn, SEGMENT_SUFFIX));
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = channel.size();
+    }
+
+    private void flushLoop() {
+        try {
+            while (true) {
+                ByteBuffer batch;
+                long batchLsn;
+                synchronized (this) {
+                    while (true) {
+                        if (closed || failure != null) {
+                            return;
+                        }
+                        if (pending.position() == 0) {
+                            wait();
+                            continue;
+                        }
+                        long remaining = firstPendingNanos + commitNanos - System.nanoTime();
+                        if (remaining <= 0 || pending.position() >= commitBytes) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                    batch = pending;
+                    pending = spare;
+                    batchLsn = nextLsn - 1;
+                    flushing = true;
+                }
+                long written = 0;
+                boolean forced = false;
+                try {
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        written += channel.write(batch);
+                    }
+                    channel.force(false);
+                    forced = true;
+                } finally {
+                    synchronized (this) {
+                        segmentSize += written;
+                        spare = batch.clear();
+                        flushing = false;
+                        if (forced) {
+                            durableLsn = batchLsn;
+                        }
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            synchronized (this) {
+                failure = ex;
+                notifyAll();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits, holding the monitor otherwise, until the flusher is not forcing
+     * a batch, so that the channel can be written or replaced.
+     */
+    private void awaitFlush() {
+        boolean interrupted = false;
+        while (flushing) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write() throws IOException {
+        pending.flip();
+        while (pending.hasRemaining()) {
+            segmentSize += channel.write(pending);
+        }
+        channel.force(false);
+        pending.clear();
+        durableLsn = nextLsn - 1;
+        notifyAll();
+    }
+
+    private void fail(IOException ex) {
+        failure = ex;
+        notifyAll();
+        throw new UncheckedIOException("Mutation log write failed", ex);
+    }
+
+    private void checkOpen() {
+        if (failure != null) {
+            throw new UncheckedIOException("Mutation log write failed", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Mutation log closed");
+        }
+    }
+
+    @FunctionalInterface
+    interface RecordHandler {
+
+        ImportSummary.Status replay(byte type, long lsn, ByteBuffer payload) throws ProductManagerException;
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+/**
+ * Why a record line could not be parsed.
+ *
+ * @author hajadalaj
+ */
+public enum ParseError {
+    EMPTY_FIELD("Empty field"),
+    MISSING_FIELD("Missing field"),
+    MISSING_SEPARATOR("Expected separator"),
+    TRAILING_DATA("Unexpected trailing data"),
+    UNTERMINATED_QUOTE("Unterminated quoted field"),
+    DATA_AFTER_QUOTE("Unexpected data after quoted field"),
+    INVALID_INTEGER("Invalid integer"),
+    INVALID_DECIMAL("Invalid decimal"),
+    INVALID_DATE("Invalid date"),
+    UNKNOWN_TYPE("Unknown product type");
+
+    private final String message;
+
+    private ParseError(String message) {
+        this.message = message;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the time-dependent pricing state, the current date and whether
+ * the drinks happy hour is on, as an immutable {@link Window}. The state is
+ * recomputed only when a window boundary passes (the happy hour start or end,
+ * or midnight), so discount checks are a volatile read instead of a clock
+ * read.
+ * <p>
+ * Products use the clock installed with {@link #install(PricingClock)}, by
+ * default a running clock on the system time zone. A clock built on a fixed
+ * or offset {@link Clock} and never started can be moved across boundaries
+ * with {@link #refresh()} to test discounts deterministically.
+ *
+ * @author hajadalaj
+ */
+public class PricingClock implements AutoCloseable {
+
+    private static final Duration MAX_REFRESH_DELAY = Duration.ofHours(1);
+    private static final LocalTime[] BOUNDARIES = {
+        Drink.HAPPY_HOUR_START.plusNanos(1), Drink.HAPPY_HOUR_END
+    };
+
+    private static volatile PricingClock current;
+
+    private final Clock clock;
+    private volatile Window window;
+    private ScheduledExecutorService scheduler;
+
+    public PricingClock(Clock clock) {
+        this.clock = clock;
+        refresh();
+    }
+
+    public static PricingClock current() {
+        PricingClock pricingClock = current;
+        if (pricingClock == null) {
+            synchronized (PricingClock.class) {
+                if (current == null) {
+                    current = new PricingClock(Clock.systemDefaultZone()).start();
+                }
+                pricingClock = current;
+            }
+        }
+        return pricingClock;
+    }
+
+    /**
+     * Makes products price against the given clock from now on; {@code null}
+     * restores the default system clock.
+     */
+    public static void install(PricingClock pricingClock) {
+        current = pricingClock;
+    }
+
+    /**
+     * Starts refreshing the window on a background thread at each boundary.
+     */
+    public synchronized PricingClock start() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "pricing-clock");
+                thread.setDaemon(true);
+                return thread;
+            });
+            schedule();
+        }
+        return this;
+    }
+
+    public Window getWindow() {
+        return window;
+    }
+
+    public LocalDate today() {
+        return window.today;
+    }
+
+    public boolean isHappyHour() {
+        return window.happyHour;
+    }
+
+    /**
+     * Recomputes the window from the underlying clock.
+     */
+    public Window refresh() {
+        LocalDateTime now = LocalDateTime.now(clock);
+        Window refreshed = new Window(now.toLocalDate(), Drink.isHappyHour(now.toLocalTime()), nextBoundary(now));
+        window = refreshed;
+        return refreshed;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private synchronized void schedule() {
+        if (scheduler == null) {
+            return;
+        }
+        Duration delay = Duration.between(LocalDateTime.now(clock), window.nextBoundary);
+        if (delay.compareTo(MAX_REFRESH_DELAY) > 0) {
+            delay = MAX_REFRESH_DELAY;
+        }
+        scheduler.schedule(() -> {
+            refresh();
+            schedule();
+        }, Math.max(delay.toMillis(), 1), TimeUnit.MILLISECONDS);
+    }
+
+    private static LocalDateTime nextBoundary(LocalDateTime now) {
+        for (LocalTime boundary : BOUNDARIES) {
+            if (now.toLocalTime().isBefore(boundary)) {
+                return now.toLocalDate().atTime(boundary);
+            }
+        }
+        return now.toLocalDate().plusDays(1).atStartOfDay();
+    }
+
+    /**
+     * The pricing state between two boundaries.
+     */
+    public static final class Window {
+
+        private final LocalDate today;
+        private final boolean happyHour;
+        private final LocalDateTime nextBoundary;
+
+        private Window(LocalDate today, boolean happyHour, LocalDateTime nextBoundary) {
+            this.today = today;
+            this.happyHour = happyHour;
+            this.nextBoundary = nextBoundary;
+        }
+
+        public LocalDate getToday() {
+            return today;
+        }
+
+        public boolean isHappyHour() {
+            return happyHour;
+        }
+
+        public LocalDateTime getNextBoundary() {
+            return nextBoundary;
+        }
+
+        @Override
+        public String toString() {
+            return "Window{" + "today=" + today + ", happyHour=" + happyHour + ", nextBoundary=" + nextBoundary + '}';
+        }
+    }
+
+}
@@ -73,8 +73,16 @@ public abstract class Product implements Rateable<Product> {
 //    }
     public BigDecimal getDiscount() {
 
-        return price.multiply(DISCOUNT_RATE).setScale(2, HALF_UP);
+        return getBaseDiscount();
+
+    }
 
+    /**
+     * The discount a product gets when its discount condition holds, at a
+     * scale of 2.
+     */
+    BigDecimal getBaseDiscount() {
+        return price.multiply(DISCOUNT_RATE).setScale(2, HALF_UP);
     }
 
     @Override
@@ -88,7 +96,7 @@ public abstract class Product implements Rateable<Product> {
 //
 //    }
     public LocalDate getBestBefore() {
-        return LocalDate.now();
+        return PricingClock.current().today();
     }
 
     public boolean isAlcoholic() {
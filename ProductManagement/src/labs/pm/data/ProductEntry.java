@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Catalog slot for one product id: the current {@code Product} instance, its
+ * reviews in a compact {@link ReviewStore} and a running aggregate of their
+ * ratings. The slot is the product's stable identity: it is never re-keyed,
+ * and reviews update the aggregate in place. {@code product} is an immutable
+ * view of the slot, replaced through {@code applyRating} only when the
+ * average rating actually changes, so most reviews allocate nothing here.
+ * <p>
+ * Reviews and the aggregate are guarded by the entry's monitor, so writers of
+ * different products never contend; {@code product} is volatile so readers
+ * see the latest rating without locking.
+ *
+ * @author hajadalaj
+ */
+class ProductEntry {
+
+    private static final Rating[] RATINGS = Rating.values();
+
+    final int id;
+    volatile Product product;
+    private final ReviewStore reviews = new ReviewStore();
+    private final int[] histogram = new int[RATINGS.length];
+    private long ratingSum;
+    /**
+     * Sequence number of the last {@link MutationLog} record reflected in the
+     * entry, guarded by the monitor; replay skips older records.
+     */
+    long lsn;
+
+    ProductEntry(Product product) {
+        this.id = product.getId();
+        this.product = product;
+    }
+
+    /**
+     * Appends the review and re-rates the product in one atomic step.
+     *
+     * @return the product, a new instance only if its rating changed
+     */
+    synchronized Product addReview(Review review) {
+        reviews.add(review);
+        count(review.getRating());
+        return rerate();
+    }
+
+    /**
+     * Appends the reviews in order and re-rates the product once for all of
+     * them, in one atomic step.
+     *
+     * @return the product, a new instance only if its rating changed
+     */
+    synchronized Product addReviews(Collection<Review> batch) {
+        for (Review review : batch) {
+            reviews.add(review);
+            count(review.getRating());
+        }
+        return rerate();
+    }
+
+    private Product rerate() {
+        Rating rating = averageRating();
+        if (rating != product.getRating()) {
+            product = product.applyRating(rating);
+        }
+        return product;
+    }
+
+    /**
+     * Appends a persisted review without re-rating the product, which was
+     * persisted with its rating.
+     */
+    synchronized void restoreReview(Rating rating, byte[] comments) {
+        reviews.add(rating, comments);
+        count(rating);
+    }
+
+    private void count(Rating rating) {
+        histogram[rating.ordinal()]++;
+        ratingSum += rating.ordinal();
+    }
+
+    /**
+     * The reviews added so far, iterated best rating first; safe to read
+     * while more reviews are being added.
+     */
+    synchronized ReviewStore.Snapshot reviews() {
+        return reviews.snapshot();
+    }
+
+    private Rating averageRating() {
+        int count = reviews.size();
+        return RATINGS[count == 0 ? 0 : (int) Math.round((double) ratingSum / count)];
+    }
+
+    synchronized Map<Rating, Integer> ratingDistribution() {
+        Map<Rating, Integer> distribution = new EnumMap<>(Rating.class);
+        addDistributionTo(distribution);
+        return distribution;
+    }
+
+    synchronized void addDistributionTo(Map<Rating, Integer> distribution) {
+        for (Rating rating : Rating.values()) {
+            distribution.merge(rating, histogram[rating.ordinal()], Integer::sum);
+        }
+    }
+
+}
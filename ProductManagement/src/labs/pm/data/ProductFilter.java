@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Product predicate built from constraints the catalog keeps indexes for:
+ * rating, price range and best before date. {@code ProductManager} queries
+ * given a {@code ProductFilter} read their candidates from the matching
+ * index instead of scanning the whole catalog. Combining it with any other
+ * predicate through {@link #and(Predicate)} keeps the index constraints.
+ * <p>
+ * Best before constraints only match {@code Food}.
+ *
+ * @author hajadalaj
+ */
+public final class ProductFilter implements Predicate<Product> {
+
+    private final Rating rating;
+    private final BigDecimal minPrice;
+    private final BigDecimal maxPrice;
+    private final LocalDate bestBeforeFrom;
+    private final LocalDate bestBeforeTo;
+    private final Predicate<? super Product> residual;
+
+    private ProductFilter(Rating rating, BigDecimal minPrice, BigDecimal maxPrice,
+            LocalDate bestBeforeFrom, LocalDate bestBeforeTo, Predicate<? super Product> residual) {
+        this.rating = rating;
+        this.minPrice = minPrice;
+        this.maxPrice = maxPrice;
+        this.bestBeforeFrom = bestBeforeFrom;
+        this.bestBeforeTo = bestBeforeTo;
+        this.residual = residual;
+    }
+
+    public static ProductFilter rating(Rating rating) {
+        return new ProductFilter(Objects.requireNonNull(rating), null, null, null, null, null);
+    }
+
+    /**
+     * Matches prices from {@code min} inclusive to {@code max} exclusive;
+     * either bound may be {@code null}.
+     */
+    public static ProductFilter priceBetween(BigDecimal min, BigDecimal max) {
+        return new ProductFilter(null, min, max, null, null, null);
+    }
+
+    public static ProductFilter priceBelow(BigDecimal max) {
+        return priceBetween(null, Objects.requireNonNull(max));
+    }
+
+    /**
+     * Matches food best before {@code from} to {@code to}, both inclusive;
+     * either bound may be {@code null}.
+     */
+    public static ProductFilter bestBeforeBetween(LocalDate from, LocalDate to) {
+        return new ProductFilter(null, null, null, from, to, null);
+    }
+
+    public static ProductFilter bestBefore(LocalDate date) {
+        return bestBeforeBetween(Objects.requireNonNull(date), date);
+    }
+
+    Rating getRating() {
+        return rating;
+    }
+
+    BigDecimal getMinPrice() {
+        return minPrice;
+    }
+
+    BigDecimal getMaxPrice() {
+        return maxPrice;
+    }
+
+    boolean hasPriceRange() {
+        return minPrice != null || maxPrice != null;
+    }
+
+    LocalDate getBestBeforeFrom() {
+        return bestBeforeFrom;
+    }
+
+    LocalDate getBestBeforeTo() {
+        return bestBeforeTo;
+    }
+
+    boolean hasBestBeforeRange() {
+        return bestBeforeFrom != null || bestBeforeTo != null;
+    }
+
+    @Override
+    public boolean test(Product product) {
+        if (rating != null && product.getRating() != rating) {
+            return false;
+        }
+        if ((minPrice != null && product.getPrice().compareTo(minPrice) < 0)
+                || (maxPrice != null && product.getPrice().compareTo(maxPrice) >= 0)) {
+            return false;
+        }
+        if (hasBestBeforeRange()) {
+            if (!(product instanceof Food)
+                    || (bestBeforeFrom != null && product.getBestBefore().isBefore(bestBeforeFrom))
+                    || (bestBeforeTo != null && product.getBestBefore().isAfter(bestBeforeTo))) {
+                return false;
+            }
+        }
+        return residual == null || residual.test(product);
+    }
+
+    @Override
+    public ProductFilter and(Predicate<? super Product> other) {
+        if (!(other instanceof ProductFilter)) {
+            Objects.requireNonNull(other);
+            return new ProductFilter(rating, minPrice, maxPrice, bestBeforeFrom, bestBeforeTo,
+                    residual == null ? other : p -> residual.test(p) && other.test(p));
+        }
+        ProductFilter that = (ProductFilter) other;
+        Predicate<? super Product> combined = residual == null ? that.residual
+                : that.residual == null ? residual : p -> residual.test(p) && that.residual.test(p);
+        if (rating != null && that.rating != null && rating != that.rating) {
+            combined = p -> false;
+        }
+        return new ProductFilter(rating != null ? rating : that.rating,
+                max(minPrice, that.minPrice), min(maxPrice, that.maxPrice),
+                max(bestBeforeFrom, that.bestBeforeFrom), min(bestBeforeTo, that.bestBeforeTo),
+                combined);
+    }
+
+    private static <T extends Comparable<? super T>> T max(T a, T b) {
+        return a == null ? b : b == null ? a : a.compareTo(b) >= 0 ? a : b;
+    }
+
+    private static <T extends Comparable<? super T>> T min(T a, T b) {
+        return a == null ? b : b == null ? a : a.compareTo(b) <= 0 ? a : b;
+    }
+
+}
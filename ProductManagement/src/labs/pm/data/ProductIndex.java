@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Primary index of the catalog: an open-addressing hash table with linear
+ * probing, keyed by the primitive product id so lookups never box.
+ * <p>
+ * Lookups are lock-free; insertions are serialized on the index and publish
+ * a resized table only once it is fully populated.
+ *
+ * @author hajadalaj
+ */
+class ProductIndex {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private volatile AtomicReferenceArray<ProductEntry> table = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private int size;
+
+    ProductEntry get(int id) {
+        AtomicReferenceArray<ProductEntry> tab = table;
+        int mask = tab.length() - 1;
+        for (int i = indexFor(id, mask);; i = (i + 1) & mask) {
+            ProductEntry entry = tab.get(i);
+            if (entry == null || entry.id == id) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Adds the entry unless its id is already indexed.
+     *
+     * @return the entry already indexed for the id, or {@code null} if the
+     * given entry was added
+     */
+    synchronized ProductEntry putIfAbsent(ProductEntry entry) {
+        AtomicReferenceArray<ProductEntry> tab = table;
+        int mask = tab.length() - 1;
+        int i = indexFor(entry.id, mask);
+        for (ProductEntry current; (current = tab.get(i)) != null; i = (i + 1) & mask) {
+            if (current.id == entry.id) {
+                return current;
+            }
+        }
+        tab.set(i, entry);
+        if (++size > tab.length() >> 1) {
+            resize(tab);
+        }
+        return null;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    Stream<ProductEntry> entries() {
+        AtomicReferenceArray<ProductEntry> tab = table;
+        return IntStream.range(0, tab.length())
+                .mapToObj(tab::get)
+                .filter(Objects::nonNull);
+    }
+
+    private void resize(AtomicReferenceArray<ProductEntry> tab) {
+        AtomicReferenceArray<ProductEntry> resized = new AtomicReferenceArray<>(tab.length() << 1);
+        int mask = resized.length() - 1;
+        for (int j = 0; j < tab.length(); j++) {
+            ProductEntry entry = tab.get(j);
+            if (entry != null) {
+                int i = indexFor(entry.id, mask);
+                while (resized.get(i) != null) {
+                    i = (i + 1) & mask;
+                }
+                resized.set(i, entry);
+            }
+        }
+        table = resized;
+    }
+
+    private static int indexFor(int id, int mask) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+}
@@ -16,39 +16,98 @@
  */
 package labs.pm.data;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.math.BigDecimal;
-import java.text.MessageFormat;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.text.NumberFormat;
-import java.text.ParseException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.time.format.FormatStyle;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
+ * Instances may be shared between threads: catalog lookups are lock-free and
+ * reviews for different products are applied in parallel, while the review
+ * list and rating of a single product are updated atomically. Reports and
+ * catalog scans read one {@link CatalogView}, so they see every product as
+ * of the same moment.
  *
  * @author hajadalaj
  */
 public class ProductManager {
 
-    private Map<Product, List<Review>> products = new HashMap();
+    private ProductIndex products = new ProductIndex();
+    private final AtomicReference<CatalogView> catalog = new AtomicReference<>(CatalogView.EMPTY);
+    private final CatalogIndexes indexes = new CatalogIndexes();
+    private final DiscountTotals discounts = new DiscountTotals();
+    private final Map<Integer, DeferredReviews> pendingReviews = new HashMap<>();
     private ResourceFormatter formatter;
     private ResourceBundle config = ResourceBundle.getBundle("labs.pm.data.config");
-    private MessageFormat reviewFormat = new MessageFormat(config.getString("review.data.format"));
-    private MessageFormat productFormat = new MessageFormat(config.getString("product.data.format"));
+    private char dataSeparator = config.getString("data.separator").charAt(0);
+    private volatile MutationLog log;
+    /**
+     * Held while a product id is claimed and its creation logged, and while
+     * the log is rotated, so every product logged before a rotation is in
+     * the catalog once the rotation returns.
+     */
+    private final Object creations = new Object();
+    private Path storeDirectory;
+    private ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LongAdder lookups = metrics.counter("lookups");
+    private final LongAdder lookupMisses = metrics.counter("lookup.misses");
+    private final LongAdder reviewsAdded = metrics.counter("reviews");
+    private final LongAdder[] parseErrors = parseErrorCounters(metrics);
+    private final LatencyHistogram reportRenderNanos = metrics.histogram("report.render.nanos");
+    private final LatencyHistogram publishNanos = metrics.histogram("catalog.publish.nanos");
     private static Map<String, ResourceFormatter> formatters
             = Map.of("en-GB", new ResourceFormatter(Locale.UK),
                     "en-US", new ResourceFormatter(Locale.US),
@@ -56,6 +115,10 @@ public class ProductManager {
                     "es-ES", new ResourceFormatter(new Locale("es", "ES")),
                     "pt-BR", new ResourceFormatter(new Locale("pt", "BR")));
 
+    private static final int IMPORT_BUFFER_SIZE = 64 * 1024;
+    private static final int REPORT_BUFFER_SIZE = 64 * 1024;
+    private static final String SNAPSHOT_FILE = "catalog.snapshot";
+
     private static final Logger logger = Logger.getLogger(ProductManager.class.getName());
 
     public ProductManager(Locale locale) {
@@ -66,6 +129,22 @@ public class ProductManager {
         changeLocale(languageTag);
     }
 
+    private static LongAdder[] parseErrorCounters(MetricsRegistry metrics) {
+        LongAdder[] counters = new LongAdder[ParseError.values().length];
+        for (ParseError kind : ParseError.values()) {
+            counters[kind.ordinal()] = metrics.counter("parse.errors." + kind.name().toLowerCase(Locale.ROOT));
+        }
+        return counters;
+    }
+
+    /**
+     * Counters of lookups, lookup misses, reviews added and parse errors by
+     * {@link ParseError} kind, and a histogram of report render times.
+     */
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
     private void changeLocale(String languageTag) {
         formatter = formatters.getOrDefault(languageTag, formatters.get("pt-BR"));
     }
@@ -74,85 +153,465 @@ public class ProductManager {
         return formatters.keySet();
     }
 
+    /**
+     * Hit and miss counts of the rendered product line caches, by supported
+     * language tag.
+     */
+    public static Map<String, CacheStats> getFormatCacheStats() {
+        return formatters.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().getCacheStats()));
+    }
+
     public Product createProduct(int id, String name, BigDecimal price, Rating rating, LocalDate bestBefore) {
         Product product = new Food(id, name, price, rating, bestBefore);
-        products.putIfAbsent(product, new ArrayList<>());
-        return product;
+        ProductEntry entry = addProduct(product);
+        commit();
+        return entry == null ? product : entry.product;
     }
 
     public Product createProduct(int id, String name, BigDecimal price, Rating rating, boolean alcoholic) {
         Product product = new Drink(id, name, price, rating, alcoholic);
-        products.putIfAbsent(product, new ArrayList<>());
-        return product;
+        ProductEntry entry = addProduct(product);
+        commit();
+        return entry == null ? product : entry.product;
     }
 
+    /**
+     * Adds the product to the catalog and applies any reviews a bulk import
+     * deferred while the product was unknown.
+     *
+     * @return the new catalog entry, or {@code null} if the id is taken
+     */
+    private ProductEntry addProduct(Product product) {
+        ProductEntry entry = new ProductEntry(product);
+        // The entry is locked before it becomes visible, so a review cannot
+        // re-rate it before it is indexed and counted.
+        synchronized (entry) {
+            if (!claim(entry)) {
+                return null;
+            }
+            indexes.add(entry);
+            discounts.add(entry.product);
+            publish(entry.product);
+            // Still under the monitor, so a snapshot sees the product either
+            // without its deferred reviews, which it then holds as deferred,
+            // or with all of them.
+            DeferredReviews deferred;
+            synchronized (pendingReviews) {
+                deferred = pendingReviews.remove(entry.id);
+            }
+            if (deferred != null) {
+                deferred.reviews.forEach(review -> addReview(entry, review, false));
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Adds the entry to the primary index unless its id is taken, logging
+     * the product first if a store is open. Only the winner of concurrent
+     * claims for an id is logged, and the log holds creations in the order
+     * they are applied.
+     */
+    private boolean claim(ProductEntry entry) {
+        synchronized (creations) {
+            if (products.get(entry.id) != null) {
+                return false;
+            }
+            MutationLog log = this.log;
+            if (log != null) {
+                entry.lsn = log.append(MutationLog.PRODUCT, MutationLog.product(entry.product));
+            }
+            products.putIfAbsent(entry);
+            return true;
+        }
+    }
+
+    private Product addReview(ProductEntry entry, Review review) {
+        return addReview(entry, review, true);
+    }
+
+    /**
+     * @param logged whether the review still has to be written to the
+     * mutation log, which is not the case for deferred reviews
+     */
+    private Product addReview(ProductEntry entry, Review review, boolean logged) {
+        synchronized (entry) {
+            MutationLog log = this.log;
+            if (logged && log != null) {
+                entry.lsn = log.append(MutationLog.REVIEW, MutationLog.review(entry.id, review));
+            }
+            Product before = entry.product;
+            Product product = entry.addReview(review);
+            reviewsAdded.increment();
+            rerated(entry, before, product);
+            return product;
+        }
+    }
+
+    private Product addReviews(ProductEntry entry, List<Review> reviews) {
+        synchronized (entry) {
+            MutationLog log = this.log;
+            if (log != null) {
+                for (Review review : reviews) {
+                    entry.lsn = log.append(MutationLog.REVIEW, MutationLog.review(entry.id, review));
+                }
+            }
+            Product before = entry.product;
+            Product product = entry.addReviews(reviews);
+            reviewsAdded.add(reviews.size());
+            rerated(entry, before, product);
+            return product;
+        }
+    }
+
+    /**
+     * Moves the entry between indexes, discount totals and catalog views if
+     * its rating changed; called holding the entry's monitor.
+     */
+    private void rerated(ProductEntry entry, Product before, Product product) {
+        if (product.getRating() != before.getRating()) {
+            indexes.rerate(entry, before.getRating(), product.getRating());
+            discounts.rerate(before, product);
+            publish(product);
+        }
+    }
+
+    /**
+     * Publishes a catalog view holding the product. Callers hold the
+     * entry's monitor, so views of one product are published in order.
+     */
+    private void publish(Product product) {
+        long start = System.nanoTime();
+        CatalogView current;
+        do {
+            current = catalog.get();
+        } while (!catalog.compareAndSet(current, current.with(product)));
+        publishNanos.recordSince(start);
+    }
+
+    /**
+     * The current catalog view. Later changes publish new views and leave
+     * this one as it is.
+     */
+    public CatalogView getCatalogView() {
+        return catalog.get();
+    }
+
+    /**
+     * Number of imported reviews waiting for their product to be created.
+     */
+    public int getPendingReviewCount() {
+        synchronized (pendingReviews) {
+            return pendingReviews.values().stream().mapToInt(d -> d.reviews.size()).sum();
+        }
+    }
+
+    /**
+     * Reviews the product with the given id.
+     *
+     * @return the re-rated product, or {@code null} if there is no product
+     * with that id
+     */
     public Product reviewProduct(int id, Rating rating, String comments) {
-        try {
-            return reviewProduct(findProduct(id), rating, comments);
-        } catch (ProductManagerException ex) {
-            logger.log(Level.INFO, ex.getMessage());
+        ProductEntry entry = lookup(id);
+        if (entry == null) {
+            logMiss(id);
+            return null;
         }
-        return null;
+        Product reviewed = addReview(entry, new Review(rating, comments));
+        commit();
+        return reviewed;
     }
 
-    public Product reviewProduct(Product product, Rating rating, String comments) {
-        List<Review> reviews = products.get(product);
-        products.remove(product, reviews);
-        reviews.add(new Review(rating, comments));
-        product = product.applyRating(
-                Rateable.convert(
-                        (int) Math.round(
-                                reviews.stream()
-                                        .mapToInt(r -> r.getRating().ordinal())
-                                        .average().orElse(0))));
-        products.put(product, reviews);
-        return product;
+    /**
+     * Applies a batch of reviews grouped by product: the reviews of each
+     * product are appended in their batch order and the product is re-rated
+     * once, and the batch is committed to the store as a whole. Reviews of
+     * unknown products are skipped.
+     *
+     * @return the re-rated products by id, in order of first appearance
+     */
+    public Map<Integer, Product> reviewProducts(Collection<ProductReview> reviews) {
+        Map<Integer, List<Review>> byProduct = new LinkedHashMap<>();
+        for (ProductReview review : reviews) {
+            byProduct.computeIfAbsent(review.getProductId(), id -> new ArrayList<>()).add(review.getReview());
+        }
+        Map<Integer, Product> reviewed = new LinkedHashMap<>();
+        byProduct.forEach((id, batch) -> {
+            ProductEntry entry = lookup(id);
+            if (entry == null) {
+                logMiss(id);
+            } else {
+                reviewed.put(id, addReviews(entry, batch));
+            }
+        });
+        commit();
+        return reviewed;
+    }
 
+    /**
+     * Opens a queue applying submitted reviews through
+     * {@link #reviewProducts(Collection)} in batches of {@code batchSize}, or
+     * smaller once the oldest review has waited {@code maxDelay}. Submitters
+     * wait while four batches are queued.
+     */
+    public ReviewQueue openReviewQueue(int batchSize, Duration maxDelay) {
+        return new ReviewQueue(this, batchSize, maxDelay, (int) Math.min(4L * batchSize, Integer.MAX_VALUE));
+    }
+
+    public Product reviewProduct(Product product, Rating rating, String comments) {
+        Product reviewed = addReview(products.get(product.getId()), new Review(rating, comments));
+        commit();
+        return reviewed;
     }
 
     public void printProductReport(int id) {
-        try {
-            printProductReport(findProduct(id));
-        } catch (ProductManagerException ex) {
-            logger.log(Level.INFO, ex.getMessage());
+        ProductEntry entry = lookup(id);
+        if (entry == null) {
+            logMiss(id);
+            return;
         }
+        printProductReport(entry.product);
     }
 
     public void printProductReport(Product product) {
-        List<Review> reviews = products.get(product);
-        StringBuilder txt = new StringBuilder();
-        txt.append(formatter.formatProduct(product));
-        txt.append('\n');
+        printReport(out -> writeProductReport(product, out));
+    }
+
+    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter) {
+        printReport(out -> writeProducts(filter, sorter, out));
+    }
+
+    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter, int offset, int limit) {
+        printReport(out -> writeProducts(filter, sorter, offset, limit, out));
+    }
 
+    public void writeProductReport(Product product, Path file) throws IOException {
+        writeReport(file, out -> writeProductReport(product, out));
+    }
+
+    public void writeProductReport(Product product, OutputStream stream) throws IOException {
+        writeReport(stream, out -> writeProductReport(product, out));
+    }
+
+    /**
+     * Writes the product line followed by its reviews, one line each. The
+     * line shows the product's current rating, even if {@code product} was
+     * obtained before later reviews. The writer is flushed but not closed.
+     */
+    public void writeProductReport(Product product, Writer out) throws IOException {
+        long start = System.nanoTime();
+        ProductEntry entry = products.get(product.getId());
+        ReviewStore.Snapshot reviews;
+        synchronized (entry) {
+            product = entry.product;
+            reviews = entry.reviews();
+        }
+        writeLine(out, formatter.formatProduct(product));
         if (reviews.isEmpty()) {
-            txt.append(formatter.getText("no.reviewed"));
-            txt.append('\n');
+            writeLine(out, formatter.getText("no.reviewed"));
         } else {
-            Collections.sort(reviews);
-            txt.append(reviews.stream()
-                    .map(r -> formatter.formatReview(r) + '\n')
-                    .collect(Collectors.joining()));
-
+            for (Review review : reviews) {
+                writeLine(out, formatter.formatReview(review));
+            }
         }
-        System.out.println(txt);
+        out.flush();
+        reportRenderNanos.recordSince(start);
     }
 
-    public void printProducts(Predicate<Product> filter, Comparator<Product> sorter) {
-//        List<Product> productList = new ArrayList<>(products.keySet());
-//        productList.sort(sorter);
-        StringBuilder txt = new StringBuilder();
-        products.keySet()
-                .stream()
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, Path file) throws IOException {
+        writeReport(file, out -> writeProducts(filter, sorter, out));
+    }
+
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, OutputStream stream) throws IOException {
+        writeReport(stream, out -> writeProducts(filter, sorter, out));
+    }
+
+    /**
+     * Writes one line per matching product. Lines go straight to the writer,
+     * so memory use does not grow with the size of the report. The writer is
+     * flushed but not closed.
+     */
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, Writer out) throws IOException {
+        long start = System.nanoTime();
+        Iterator<Product> matching = select(filter)
                 .sorted(sorter)
-                .filter(filter)
-                .forEach(p -> txt.append(formatter.formatProduct(p) + '\n'));
-//        for (Product product : productList) {
-//            txt.append(formatter.formatProduct(product));
-//            txt.append('\n');
-//        }
-        System.out.println(txt);
+                .iterator();
+        while (matching.hasNext()) {
+            writeLine(out, formatter.formatProduct(matching.next()));
+        }
+        out.flush();
+        reportRenderNanos.recordSince(start);
+    }
+
+    /**
+     * Writes the report of {@link #writeProducts(Predicate, Comparator, Writer)}
+     * once per language tag in {@code outs}, each to its own writer. The
+     * catalog is filtered and sorted once; the locales then render in
+     * parallel on the common fork-join pool. The writers are flushed but not
+     * closed.
+     *
+     * @throws IllegalArgumentException if a language tag is not one of
+     * {@link #getSupportedLocales()}
+     */
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, Map<String, ? extends Writer> outs) throws IOException {
+        long start = System.nanoTime();
+        Map<ResourceFormatter, Writer> sinks = new LinkedHashMap<>();
+        for (Map.Entry<String, ? extends Writer> out : outs.entrySet()) {
+            ResourceFormatter localeFormatter = formatters.get(out.getKey());
+            if (localeFormatter == null) {
+                throw new IllegalArgumentException("Unsupported locale " + out.getKey());
+            }
+            sinks.put(localeFormatter, out.getValue());
+        }
+        Product[] matching = select(filter).sorted(sorter).toArray(Product[]::new);
+        List<Callable<Void>> locales = new ArrayList<>(sinks.size());
+        sinks.forEach((localeFormatter, out) -> locales.add(() -> {
+            for (Product product : matching) {
+                writeLine(out, localeFormatter.formatProduct(product));
+            }
+            out.flush();
+            return null;
+        }));
+        try {
+            for (Future<Void> rendered : ForkJoinPool.commonPool().invokeAll(locales)) {
+                rendered.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Report interrupted");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        }
+        reportRenderNanos.recordSince(start);
+    }
+
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, int offset, int limit, Writer out) throws IOException {
+        long start = System.nanoTime();
+        for (Product product : findProducts(filter, sorter, offset, limit)) {
+            writeLine(out, formatter.formatProduct(product));
+        }
+        out.flush();
+        reportRenderNanos.recordSince(start);
+    }
+
+    public void writeProducts(Predicate<Product> filter, Comparator<Product> sorter, Product after, int limit, Writer out) throws IOException {
+        long start = System.nanoTime();
+        for (Product product : findProducts(filter, sorter, after, limit)) {
+            writeLine(out, formatter.formatProduct(product));
+        }
+        out.flush();
+        reportRenderNanos.recordSince(start);
     }
 
+    /**
+     * Returns one page of the matching products in {@code sorter} order,
+     * ties broken by id. Only {@code offset + limit} products are kept while
+     * the catalog is scanned, so the first pages never sort the catalog.
+     */
+    public List<Product> findProducts(Predicate<Product> filter, Comparator<Product> sorter, int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Invalid page offset " + offset + " limit " + limit);
+        }
+        Comparator<Product> order = sorter.thenComparingInt(Product::getId);
+        List<Product> page = top(select(filter), order, (int) Math.min((long) offset + limit, Integer.MAX_VALUE));
+        return page.subList(Math.min(offset, page.size()), page.size());
+    }
+
+    /**
+     * Returns the page of matching products that follows {@code after} in
+     * {@code sorter} order, ties broken by id. Pass the last product of the
+     * previous page, or {@code null} for the first page; unlike offsets the
+     * cost does not grow with the page number.
+     */
+    public List<Product> findProducts(Predicate<Product> filter, Comparator<Product> sorter, Product after, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Invalid page limit " + limit);
+        }
+        Comparator<Product> order = sorter.thenComparingInt(Product::getId);
+        Predicate<Product> matching = after == null ? filter : filter.and(p -> order.compare(p, after) > 0);
+        return top(select(matching), order, limit);
+    }
+
+    /**
+     * Finds the products matching the filter. A {@link ProductFilter} is
+     * answered from the rating, price or best before index, which follow the
+     * live catalog; any other predicate is tested against the current
+     * {@link CatalogView}.
+     */
+    public List<Product> findProducts(Predicate<Product> filter) {
+        return select(filter).collect(Collectors.toList());
+    }
+
+    private Stream<Product> select(Predicate<Product> filter) {
+        Stream<ProductEntry> candidates = filter instanceof ProductFilter
+                ? indexes.candidates((ProductFilter) filter) : null;
+        if (candidates == null) {
+            return catalog.get().products().filter(filter);
+        }
+        return candidates.map(e -> e.product).filter(filter);
+    }
+
+    private static List<Product> top(Stream<Product> candidates, Comparator<Product> order, int count) {
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Product> heap = new PriorityQueue<>(Math.min(count, 1024), order.reversed());
+        candidates.forEachOrdered(p -> {
+            if (heap.size() < count) {
+                heap.add(p);
+            } else if (order.compare(p, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(p);
+            }
+        });
+        List<Product> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+
+    private static void writeLine(Writer out, String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+    }
+
+    private static void printReport(ReportWriter report) {
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out), REPORT_BUFFER_SIZE);
+            report.write(out);
+            out.write('\n');
+            out.flush();
+        } catch (IOException ex) {
+            logger.log(Level.WARNING, "Error printing report {0}", ex.getMessage());
+        }
+    }
+
+    private static void writeReport(OutputStream stream, ReportWriter report) throws IOException {
+        report.write(new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), REPORT_BUFFER_SIZE));
+    }
+
+    private static void writeReport(Path file, ReportWriter report) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), REPORT_BUFFER_SIZE)) {
+            report.write(out);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ReportWriter {
+
+        void write(Writer out) throws IOException;
+    }
+
+    /**
+     * @throws ProductManagerException without a stack trace if there is no
+     * product with that id; {@link #lookupProduct(int)} reports the miss
+     * without an exception
+     */
     public Product findProduct(int id) throws ProductManagerException {
 //        for (Product product : products.keySet()) {
 //            if (product.getId() == id) {
@@ -160,54 +619,473 @@ public class ProductManager {
 //            }
 //        }
 //        return null;
-        return products.keySet().stream()
-                .filter(p -> p.getId() == id)
-                .findFirst()
-                .orElseThrow(() -> new ProductManagerException("Poduct id: " + id + " notfound"));
-        //orElseGet(() -> null);
+        ProductEntry entry = lookup(id);
+        if (entry == null) {
+            throw new ProductManagerException("Poduct id: " + id + " notfound", false);
+        }
+        return entry.product;
+    }
+
+    public Optional<Product> lookupProduct(int id) {
+        ProductEntry entry = lookup(id);
+        return entry == null ? Optional.empty() : Optional.of(entry.product);
+    }
+
+    /**
+     * The catalog entry for the id, or {@code null}, counted as a lookup.
+     */
+    private ProductEntry lookup(int id) {
+        lookups.increment();
+        ProductEntry entry = products.get(id);
+        if (entry == null) {
+            lookupMisses.increment();
+        }
+        return entry;
+    }
+
+    /**
+     * Misses are counted as {@code lookup.misses}; the log only sees them at
+     * {@code FINE}, as unknown ids can arrive at high rates.
+     */
+    private static void logMiss(int id) {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.log(Level.FINE, "Poduct id: {0} notfound", id);
+        }
+    }
+
+    public Map<Rating, Integer> getRatingDistribution(int id) throws ProductManagerException {
+        return getRatingDistribution(findProduct(id));
+    }
+
+    public Map<Rating, Integer> getRatingDistribution(Product product) {
+        return products.get(product.getId()).ratingDistribution();
+    }
+
+    public Map<Rating, Integer> getRatingDistribution() {
+        Map<Rating, Integer> distribution = new EnumMap<>(Rating.class);
+        products.entries().forEach(e -> e.addDistributionTo(distribution));
+        return distribution;
     }
 
     public Map<String, String> getDiscounts() {
-        return products.keySet()
-                .stream()
-                .collect(
-                        Collectors.groupingBy(
-                                p -> p.getRating().getStars(),
-                                Collectors.collectingAndThen(
-                                        Collectors.summingDouble(
-                                                p -> p.getDiscount().doubleValue()),
-                                        d -> formatter.moneyFormat.format(d))));
+        PricingClock.Window window = PricingClock.current().getWindow();
+        Map<String, String> totals = new HashMap<>();
+        discounts.totals(window.isHappyHour(), window.getToday())
+                .forEach((rating, discount) -> totals.put(rating.getStars(), formatter.formatMoney(discount)));
+        return totals;
     }
 
-    public void parseReview(String text) {
+    /**
+     * Writes the whole catalog with its reviews to a binary snapshot. Each
+     * product is captured atomically with its reviews; products changed
+     * while the snapshot is being written may appear before or after the
+     * change. Reviews still waiting for their product are included as
+     * they were when the snapshot started.
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        List<DeferredReviews> deferred = new ArrayList<>();
+        synchronized (pendingReviews) {
+            pendingReviews.values().forEach(d -> deferred.add(d.copy()));
+        }
+        CatalogSnapshot.write(products.entries().iterator(), deferred, file);
+    }
+
+    /**
+     * Restores reviews a snapshot holds as deferred, unless their product
+     * is already in the catalog with a later logged change.
+     */
+    private void restoreDeferred(DeferredReviews restored) {
+        ProductEntry entry = products.get(restored.id);
+        if (entry != null) {
+            synchronized (entry) {
+                if (entry.lsn >= restored.lsn) {
+                    return;
+                }
+                restored.reviews.forEach(review -> addReview(entry, review, false));
+                entry.lsn = restored.lsn;
+            }
+            return;
+        }
+        synchronized (pendingReviews) {
+            DeferredReviews deferred = pendingReviews.computeIfAbsent(restored.id, DeferredReviews::new);
+            restored.reviews.forEach(review -> deferred.add(review, restored.lsn));
+        }
+    }
+
+    /**
+     * Adds the products and reviews of a snapshot written by
+     * {@link #saveSnapshot(Path)}; products whose id is already in the
+     * catalog are rejected. Not allowed while a store is open, since the
+     * restored reviews would not be logged.
+     */
+    public ImportSummary loadSnapshot(Path file) throws IOException, ProductManagerException {
+        if (log != null) {
+            throw new IllegalStateException("Cannot load a snapshot into the open store " + storeDirectory);
+        }
+        ImportSummary summary = CatalogSnapshot.read(file, this::addProduct, this::restoreDeferred);
+        logger.log(Level.INFO, "Snapshot loaded: {0}", summary);
+        return summary;
+    }
+
+    /**
+     * Makes the catalog durable in {@code directory}, committing changes as
+     * configured by {@code log.group.commit} and
+     * {@code log.commit.interval.ms}.
+     *
+     * @see #openStore(Path, boolean, Duration)
+     */
+    public ImportSummary openStore(Path directory) throws IOException, ProductManagerException {
+        return openStore(directory, Boolean.parseBoolean(config.getString("log.group.commit")),
+                Duration.ofMillis(Long.parseLong(config.getString("log.commit.interval.ms"))));
+    }
+
+    /**
+     * Makes the catalog durable in {@code directory}: loads the latest
+     * snapshot there, replays the mutation log written since, then logs every
+     * product and review added until {@link #closeStore()}. Products and
+     * reviews already in the catalog are written to a new snapshot before
+     * this returns, so later logged reviews of them survive a restart.
+     * Single changes
+     * return once their log record is on disk; imports once the whole import
+     * is. With {@code groupCommit} the records of concurrent changes are
+     * forced together, a batch waiting up to {@code commitInterval} for more
+     * records; without it each record is forced on its own. Once the log
+     * grows past {@code log.compact.bytes} it is compacted into a new
+     * snapshot in the background.
+     */
+    public synchronized ImportSummary openStore(Path directory, boolean groupCommit, Duration commitInterval) throws IOException, ProductManagerException {
+        if (log != null) {
+            throw new IllegalStateException("Store already open: " + storeDirectory);
+        }
+        long start = System.nanoTime();
+        Files.createDirectories(directory);
+        Path snapshot = directory.resolve(SNAPSHOT_FILE);
+        boolean unlogged = products.size() > 0 || getPendingReviewCount() > 0;
+        ImportSummary summary = Files.exists(snapshot) ? CatalogSnapshot.read(snapshot, this::addProduct, this::restoreDeferred) : new ImportSummary();
+        long lastLsn = MutationLog.replay(directory, this::replay, summary);
+        lastLsn = Math.max(lastLsn, products.entries().mapToLong(e -> e.lsn).max().orElse(0));
+        synchronized (pendingReviews) {
+            // Compaction may have deleted the segments holding the deferred
+            // reviews, which replay must still tell apart from new records.
+            lastLsn = Math.max(lastLsn, pendingReviews.values().stream().mapToLong(d -> d.lsn).max().orElse(0));
+        }
+        summary.setElapsedNanos(System.nanoTime() - start);
+        storeDirectory = directory;
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "catalog-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        log = new MutationLog(directory, lastLsn + 1, groupCommit, commitInterval, Integer.parseInt(config.getString("log.commit.bytes")));
+        if (unlogged) {
+            snapshotStore(log);
+        }
+        logger.log(Level.INFO, "Store opened: {0}", summary);
+        return summary;
+    }
+
+    /**
+     * Writes a new snapshot of the store in the background and deletes the
+     * log segments it replaces. Changes keep being logged meanwhile.
+     */
+    public CompletableFuture<Void> compactStore() {
+        MutationLog log = this.log;
+        if (log == null) {
+            throw new IllegalStateException("No store open");
+        }
+        return CompletableFuture.runAsync(() -> compact(log), compactor);
+    }
+
+    /**
+     * Waits for a running compaction and closes the mutation log. Changes
+     * made afterwards are no longer logged.
+     */
+    public synchronized void closeStore() throws IOException {
+        if (log == null) {
+            return;
+        }
+        compactor.shutdown();
         try {
-            Object[] values = reviewFormat.parse(text);
-            reviewProduct(Integer.parseInt((String) values[0]), Rateable.convert(Integer.parseInt((String) values[1])), (String) values[2]);
-        } catch (ParseException | NumberFormatException ex) {
-            logger.log(Level.WARNING, "Error parse review " + text, ex);
+            compactor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
+        log.close();
+        log = null;
     }
 
-    public void parseProduct(String text) {
+    private void compact(MutationLog log) {
         try {
-            Object[] values = productFormat.parse(text);
-            int id = Integer.parseInt((String) values[1]);
-            String name = (String) values[2];
-            BigDecimal price = BigDecimal.valueOf(Double.parseDouble((String) values[3]));
-            Rating rating = Rateable.convert(Integer.parseInt((String) values[4]));
-            switch ((String) values[0]) {
-                case "D":
-                    boolean alcoholic = Boolean.parseBoolean((String) values[5]);
-                    createProduct(id, name, price, rating, alcoholic);
-                    break;
-                case "F":
-                    LocalDate bestBefore = LocalDate.parse((String) values[5]);
-                    createProduct(id, name, price, rating, bestBefore);
+            int replaced = snapshotStore(log);
+            logger.log(Level.INFO, "Store compacted, {0} log segments replaced", replaced);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Continues the log in a new segment, writes a snapshot of the store
+     * and deletes the segments it replaces.
+     *
+     * @return the number of segments deleted
+     */
+    private int snapshotStore(MutationLog log) throws IOException {
+        List<Path> replaced;
+        synchronized (creations) {
+            replaced = log.rotate();
+        }
+        saveSnapshot(storeDirectory.resolve(SNAPSHOT_FILE));
+        for (Path segment : replaced) {
+            Files.deleteIfExists(segment);
+        }
+        return replaced.size();
+    }
+
+    /**
+     * Waits until the changes logged so far are durable, starting a
+     * compaction when the log has grown too large.
+     */
+    private void commit() {
+        MutationLog log = this.log;
+        if (log == null) {
+            return;
+        }
+        log.awaitDurable(log.lastLsn());
+        if (log.segmentSize() > Long.parseLong(config.getString("log.compact.bytes")) && compacting.compareAndSet(false, true)) {
+            compactStore().whenComplete((done, ex) -> {
+                if (ex != null) {
+                    logger.log(Level.WARNING, "Store compaction failed", ex);
+                }
+            });
+        }
+    }
+
+    /**
+     * Applies a logged change unless the catalog already reflects it.
+     */
+    private ImportSummary.Status replay(byte type, long lsn, ByteBuffer payload) throws ProductManagerException {
+        switch (type) {
+            case MutationLog.PRODUCT:
+                ProductEntry created = addProduct(CatalogSnapshot.decode(payload));
+                if (created == null) {
+                    return ImportSummary.Status.REJECTED;
+                }
+                synchronized (created) {
+                    created.lsn = lsn;
+                }
+                return ImportSummary.Status.LOADED;
+            case MutationLog.REVIEW:
+                int id = payload.getInt();
+                Review review = MutationLog.readReview(payload);
+                ProductEntry entry = products.get(id);
+                if (entry == null) {
+                    synchronized (pendingReviews) {
+                        DeferredReviews deferred = pendingReviews.computeIfAbsent(id, DeferredReviews::new);
+                        if (lsn <= deferred.lsn) {
+                            return ImportSummary.Status.REJECTED;
+                        }
+                        deferred.add(review, lsn);
+                    }
+                    return ImportSummary.Status.DEFERRED;
+                }
+                synchronized (entry) {
+                    if (lsn <= entry.lsn) {
+                        return ImportSummary.Status.REJECTED;
+                    }
+                    addReview(entry, review, false);
+                    entry.lsn = lsn;
+                }
+                return ImportSummary.Status.LOADED;
+            default:
+                throw new ProductManagerException("Unknown log record type " + type);
+        }
+    }
+
+    public void parseReview(String text) {
+        RecordParser parser = new RecordParser(dataSeparator).reset(text);
+        ReviewRecord record = readReview(parser);
+        if (record == null) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Error parsing review {0}: {1}", new Object[]{text, parser.getError()});
             }
-        } catch (ParseException | NumberFormatException | DateTimeParseException ex) {
-            logger.log(Level.WARNING, "Error parsing product " + text + " " + ex.getMessage());
+            return;
+        }
+        ProductEntry entry = products.get(record.id);
+        if (entry == null) {
+            logger.log(Level.INFO, "Review for unknown product rejected: {0}", text);
+            return;
         }
+        addReview(entry, record.review);
+        commit();
+    }
 
+    public void parseProduct(String text) {
+        RecordParser parser = new RecordParser(dataSeparator).reset(text);
+        Product product = readProduct(parser);
+        if (product == null) {
+            if (logger.isLoggable(Level.WARNING)) {
+                logger.log(Level.WARNING, "Error parsing product {0}: {1}", new Object[]{text, parser.getError()});
+            }
+            return;
+        }
+        addProduct(product);
+        commit();
+    }
+
+    public ImportSummary importProducts(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return importProducts(channel);
+        }
+    }
+
+    public ImportSummary importProducts(ReadableByteChannel channel) throws IOException {
+        return importLines(channel, this::readProduct, this::applyProduct);
+    }
+
+    /**
+     * Imports products with {@code parallelism} parser threads. The catalog
+     * ends up as if the file had been imported sequentially.
+     */
+    public ImportSummary importProducts(Path file, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return importProducts(channel, parallelism);
+        }
+    }
+
+    public ImportSummary importProducts(ReadableByteChannel channel, int parallelism) throws IOException {
+        return importLines(channel, parallelism, this::readProduct, this::applyProduct);
+    }
+
+    public ImportSummary importReviews(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return importReviews(channel);
+        }
+    }
+
+    public ImportSummary importReviews(ReadableByteChannel channel) throws IOException {
+        return importLines(channel, this::readReview, this::applyReview);
+    }
+
+    /**
+     * Imports reviews with {@code parallelism} parser threads, applying them
+     * in file order. Reviews for products that do not exist yet are kept
+     * and applied, in file order, when the product is created.
+     */
+    public ImportSummary importReviews(Path file, int parallelism) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return importReviews(channel, parallelism);
+        }
+    }
+
+    public ImportSummary importReviews(ReadableByteChannel channel, int parallelism) throws IOException {
+        return importLines(channel, parallelism, this::readReview, this::applyReview);
+    }
+
+    private <T> ImportSummary importLines(ReadableByteChannel channel, Function<RecordParser, T> reader,
+            Function<T, ImportSummary.Status> applier) throws IOException {
+        ImportSummary summary = new ImportSummary();
+        BufferedReader lines = newLineReader(channel);
+        RecordParser parser = new RecordParser(dataSeparator);
+        long start = System.nanoTime();
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (!line.isBlank()) {
+                T record = reader.apply(parser.reset(line));
+                summary.record(record == null ? ImportSummary.Status.MALFORMED : applier.apply(record));
+            }
+        }
+        commit();
+        summary.setElapsedNanos(System.nanoTime() - start);
+        logger.log(Level.INFO, "Import finished: {0}", summary);
+        return summary;
+    }
+
+    private <T> ImportSummary importLines(ReadableByteChannel channel, int parallelism, Function<RecordParser, T> reader,
+            Function<T, ImportSummary.Status> applier) throws IOException {
+        ImportSummary summary = new ImportPipeline<>(dataSeparator, parallelism, reader, applier)
+                .run(newLineReader(channel));
+        commit();
+        logger.log(Level.INFO, "Import finished: {0}", summary);
+        return summary;
+    }
+
+    private static BufferedReader newLineReader(ReadableByteChannel channel) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return new BufferedReader(Channels.newReader(channel, decoder, IMPORT_BUFFER_SIZE), IMPORT_BUFFER_SIZE);
+    }
+
+    private ReviewRecord readReview(RecordParser parser) {
+        int id = parser.nextInt();
+        Rating rating = Rateable.convert(parser.nextInt());
+        String comments = parser.remainingString();
+        if (parser.failed()) {
+            parseErrors[parser.getErrorKind().ordinal()].increment();
+            return null;
+        }
+        return new ReviewRecord(id, new Review(rating, comments));
+    }
+
+    private ImportSummary.Status applyReview(ReviewRecord record) {
+        ProductEntry entry = products.get(record.id);
+        if (entry == null) {
+            synchronized (pendingReviews) {
+                entry = products.get(record.id);
+                if (entry == null) {
+                    MutationLog log = this.log;
+                    long lsn = log == null ? 0 : log.append(MutationLog.REVIEW, MutationLog.review(record.id, record.review));
+                    pendingReviews.computeIfAbsent(record.id, DeferredReviews::new).add(record.review, lsn);
+                    return ImportSummary.Status.DEFERRED;
+                }
+            }
+        }
+        addReview(entry, record.review);
+        return ImportSummary.Status.LOADED;
+    }
+
+    private Product readProduct(RecordParser parser) {
+        char type = parser.nextChar();
+        int id = parser.nextInt();
+        String name = parser.nextString();
+        BigDecimal price = parser.nextDecimal();
+        Rating rating = Rateable.convert(parser.nextInt());
+        Product product = null;
+        switch (type) {
+            case 'D':
+                boolean alcoholic = parser.nextBoolean();
+                product = new Drink(id, name, price, rating, alcoholic);
+                break;
+            case 'F':
+                LocalDate bestBefore = parser.nextDate();
+                product = new Food(id, name, price, rating, bestBefore);
+                break;
+            default:
+                parser.fail(ParseError.UNKNOWN_TYPE);
+        }
+        parser.end();
+        if (parser.failed()) {
+            parseErrors[parser.getErrorKind().ordinal()].increment();
+            return null;
+        }
+        return product;
+    }
+
+    private ImportSummary.Status applyProduct(Product product) {
+        return addProduct(product) != null ? ImportSummary.Status.LOADED : ImportSummary.Status.REJECTED;
+    }
+
+    private static class ReviewRecord {
+
+        private final int id;
+        private final Review review;
+
+        private ReviewRecord(int id, Review review) {
+            this.id = id;
+            this.review = review;
+        }
     }
 
     private static class ResourceFormatter {
@@ -215,27 +1093,40 @@ public class ProductManager {
         private Locale locale;
         private ResourceBundle resources;
         private DateTimeFormatter dateFormat;
-        private NumberFormat moneyFormat;
+        private ThreadLocal<NumberFormat> moneyFormat;
+        private MessageTemplate foodTemplate;
+        private MessageTemplate drinkTemplate;
+        private MessageTemplate reviewTemplate;
+        private LineCache<Product> productLines;
 
         private ResourceFormatter(Locale locale) {
             this.locale = locale;
             resources = ResourceBundle.getBundle("labs.pm.data.resources", locale);
             dateFormat = DateTimeFormatter.ofLocalizedDate(FormatStyle.SHORT).localizedBy(locale);
-            moneyFormat = NumberFormat.getCurrencyInstance(locale);
+            moneyFormat = ThreadLocal.withInitial(() -> NumberFormat.getCurrencyInstance(locale));
+            foodTemplate = new MessageTemplate(resources.getString("food"));
+            drinkTemplate = new MessageTemplate(resources.getString("drink"));
+            reviewTemplate = new MessageTemplate(resources.getString("review"));
+            int cacheSize = Integer.parseInt(ResourceBundle.getBundle("labs.pm.data.config").getString("format.cache.size"));
+            productLines = new LineCache<>(cacheSize);
         }
 
         private String formatProduct(Product product) {
+            return productLines.get(product, this::renderProduct);
+        }
+
+        private String renderProduct(Product product) {
             String message = null;
             if (product instanceof Food) {
-                message = MessageFormat.format(resources.getString("food"),
+                message = foodTemplate.format(
                         product.getName(),
-                        moneyFormat.format(product.getPrice()),
+                        formatMoney(product.getPrice()),
                         product.getRating().getStars(),
                         dateFormat.format(product.getBestBefore()));
             } else if (product instanceof Drink) {
-                message = MessageFormat.format(resources.getString("drink"),
+                message = drinkTemplate.format(
                         product.getName(),
-                        moneyFormat.format(product.getPrice()),
+                        formatMoney(product.getPrice()),
                         product.getRating().getStars(),
                         product.isAlcoholic());
             }
@@ -243,14 +1134,22 @@ public class ProductManager {
         }
 
         private String formatReview(Review review) {
-            return MessageFormat.format(resources.getString("review"),
+            return reviewTemplate.format(
                     review.getRating().getStars(),
                     review.getComments());
         }
 
+        private String formatMoney(Object amount) {
+            return moneyFormat.get().format(amount);
+        }
+
         private String getText(String key) {
             return resources.getString(key);
         }
+
+        private CacheStats getCacheStats() {
+            return productLines.stats();
+        }
     }
 
 }
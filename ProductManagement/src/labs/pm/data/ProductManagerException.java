@@ -17,6 +17,8 @@
 package labs.pm.data;
 
 /**
+ * Exceptions thrown for expected outcomes such as an unknown product id can
+ * skip the stack trace, which is most of the cost of throwing them.
  *
  * @author hajadalaj
  */
@@ -33,4 +35,11 @@ public class ProductManagerException extends Exception {
         super(message, cause);
     }
 
+    /**
+     * @param stackTrace {@code false} to leave the stack trace empty
+     */
+    public ProductManagerException(String message, boolean stackTrace) {
+        super(message, null, false, stackTrace);
+    }
+
 }
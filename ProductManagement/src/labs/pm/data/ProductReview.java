@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+/**
+ * A review addressed to a product by id, the unit of
+ * {@link ProductManager#reviewProducts(java.util.Collection)} batches.
+ *
+ * @author hajadalaj
+ */
+public final class ProductReview {
+
+    private final int productId;
+    private final Review review;
+
+    public ProductReview(int productId, Review review) {
+        this.productId = productId;
+        this.review = review;
+    }
+
+    public ProductReview(int productId, Rating rating, String comments) {
+        this(productId, new Review(rating, comments));
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public Review getReview() {
+        return review;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductReview{" + "productId=" + productId + ", review=" + review + '}';
+    }
+
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+
+/**
+ * Tokenizer for the separated product and review record lines. Fields are
+ * read in order straight into their target types, and a field may be quoted
+ * with {@code "} to carry separators ({@code ""} stands for a quote inside a
+ * quoted field).
+ * <p>
+ * Errors do not throw: the first one is recorded, later reads return
+ * defaults, and the caller checks {@link #failed()} once the record is read.
+ * A parser is meant to be reset and reused line after line by one thread.
+ *
+ * @author hajadalaj
+ */
+class RecordParser {
+
+    private static final char QUOTE = '"';
+    private static final int MAX_LONG_DIGITS = 18;
+
+    private final char separator;
+    private CharSequence line;
+    private int pos;
+    private boolean lastField;
+    private ParseError error;
+    private int errorPos;
+
+    RecordParser(char separator) {
+        this.separator = separator;
+    }
+
+    RecordParser reset(CharSequence line) {
+        this.line = line;
+        pos = 0;
+        lastField = false;
+        error = null;
+        errorPos = -1;
+        return this;
+    }
+
+    boolean failed() {
+        return error != null;
+    }
+
+    String getError() {
+        return error == null ? null : error.getMessage() + " at position " + errorPos;
+    }
+
+    ParseError getErrorKind() {
+        return error;
+    }
+
+    char nextChar() {
+        if (!begin()) {
+            return 0;
+        }
+        if (pos >= line.length() || line.charAt(pos) == separator) {
+            fail(ParseError.EMPTY_FIELD);
+            return 0;
+        }
+        char c = line.charAt(pos++);
+        endField();
+        return c;
+    }
+
+    int nextInt() {
+        if (!begin()) {
+            return 0;
+        }
+        int start = pos;
+        boolean negative = pos < line.length() && line.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        for (char c; pos < line.length() && (c = line.charAt(pos)) != separator; pos++, digits++) {
+            if (c < '0' || c > '9' || digits > 9) {
+                fail(ParseError.INVALID_INTEGER);
+                return 0;
+            }
+            value = value * 10 + (c - '0');
+        }
+        value = negative ? -value : value;
+        if (digits == 0 || value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            pos = start;
+            fail(ParseError.INVALID_INTEGER);
+            return 0;
+        }
+        endField();
+        return (int) value;
+    }
+
+    /**
+     * Reads a plain decimal such as {@code 3.99} directly into a
+     * {@code BigDecimal}, keeping the scale written in the record.
+     */
+    BigDecimal nextDecimal() {
+        if (!begin()) {
+            return null;
+        }
+        int start = pos;
+        boolean negative = pos < line.length() && line.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int scale = -1;
+        for (char c; pos < line.length() && (c = line.charAt(pos)) != separator; pos++) {
+            if (c == '.' && scale < 0) {
+                scale = 0;
+            } else if (c >= '0' && c <= '9') {
+                unscaled = unscaled * 10 + (c - '0');
+                digits++;
+                if (scale >= 0) {
+                    scale++;
+                }
+            } else {
+                fail(ParseError.INVALID_DECIMAL);
+                return null;
+            }
+        }
+        if (digits == 0) {
+            pos = start;
+            fail(ParseError.INVALID_DECIMAL);
+            return null;
+        }
+        BigDecimal value = digits <= MAX_LONG_DIGITS
+                ? BigDecimal.valueOf(negative ? -unscaled : unscaled, Math.max(scale, 0))
+                : new BigDecimal(line.subSequence(start, pos).toString());
+        endField();
+        return value;
+    }
+
+    /**
+     * Reads a boolean the way {@code Boolean.parseBoolean} does: only
+     * {@code true}, in any case, is true.
+     */
+    boolean nextBoolean() {
+        if (!begin()) {
+            return false;
+        }
+        int start = pos;
+        skipField();
+        boolean value = pos - start == 4
+                && Character.toLowerCase(line.charAt(start)) == 't'
+                && Character.toLowerCase(line.charAt(start + 1)) == 'r'
+                && Character.toLowerCase(line.charAt(start + 2)) == 'u'
+                && Character.toLowerCase(line.charAt(start + 3)) == 'e';
+        endField();
+        return value;
+    }
+
+    /**
+     * Reads an ISO-8601 date such as {@code 2019-09-19}.
+     */
+    LocalDate nextDate() {
+        if (!begin()) {
+            return null;
+        }
+        int start = pos;
+        int year = digits(4);
+        int month = expect('-') ? digits(2) : -1;
+        int day = expect('-') ? digits(2) : -1;
+        if (year < 0 || month < 1 || month > 12 || day < 1
+                || day > Month.of(month).length(Year.isLeap(year))
+                || (pos < line.length() && line.charAt(pos) != separator)) {
+            pos = start;
+            fail(ParseError.INVALID_DATE);
+            return null;
+        }
+        endField();
+        return LocalDate.of(year, month, day);
+    }
+
+    String nextString() {
+        if (!begin()) {
+            return null;
+        }
+        String value;
+        if (pos < line.length() && line.charAt(pos) == QUOTE) {
+            value = quoted();
+        } else {
+            int start = pos;
+            skipField();
+            value = line.subSequence(start, pos).toString();
+        }
+        endField();
+        return value;
+    }
+
+    /**
+     * Reads the last field of a record. Unless it is quoted it extends to the
+     * end of the line, separators included.
+     */
+    String remainingString() {
+        if (!begin()) {
+            return null;
+        }
+        if (pos < line.length() && line.charAt(pos) == QUOTE) {
+            String value = quoted();
+            if (!failed() && pos < line.length()) {
+                fail(ParseError.DATA_AFTER_QUOTE);
+            }
+            lastField = true;
+            return value;
+        }
+        String value = line.subSequence(pos, line.length()).toString();
+        pos = line.length();
+        lastField = true;
+        return value;
+    }
+
+    /**
+     * Checks that the whole line has been consumed.
+     */
+    void end() {
+        if (!failed() && !lastField) {
+            fail(ParseError.TRAILING_DATA);
+        }
+    }
+
+    void fail(ParseError kind) {
+        if (error == null) {
+            error = kind;
+            errorPos = pos;
+        }
+    }
+
+    private boolean begin() {
+        if (failed()) {
+            return false;
+        }
+        if (lastField) {
+            fail(ParseError.MISSING_FIELD);
+            return false;
+        }
+        return true;
+    }
+
+    private String quoted() {
+        StringBuilder value = new StringBuilder();
+        for (int i = pos + 1; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == QUOTE) {
+                if (i + 1 < line.length() && line.charAt(i + 1) == QUOTE) {
+                    value.append(QUOTE);
+                    i++;
+                } else {
+                    pos = i + 1;
+                    return value.toString();
+                }
+            } else {
+                value.append(c);
+            }
+        }
+        fail(ParseError.UNTERMINATED_QUOTE);
+        return null;
+    }
+
+    private int digits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++, pos++) {
+            char c = pos < line.length() ? line.charAt(pos) : 0;
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private boolean expect(char c) {
+        if (pos < line.length() && line.charAt(pos) == c) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipField() {
+        while (pos < line.length() && line.charAt(pos) != separator) {
+            pos++;
+        }
+    }
+
+    private void endField() {
+        if (failed()) {
+            return;
+        }
+        if (pos >= line.length()) {
+            lastField = true;
+        } else if (line.charAt(pos) == separator) {
+            pos++;
+        } else {
+            fail(ParseError.MISSING_SEPARATOR);
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous review intake that hands reviews to
+ * {@link ProductManager#reviewProducts(java.util.Collection)} in batches. A
+ * batch is applied once {@code batchSize} reviews are waiting, or once the
+ * first of them has waited {@code maxDelay}, by a single background thread.
+ * Submitters block while {@code capacity} reviews are already waiting, so a
+ * feed faster than the catalog cannot exhaust memory.
+ * <p>
+ * Reviews of unknown products are dropped as by {@code reviewProducts}; a
+ * batch that fails, for example because the mutation log cannot be written,
+ * is logged and dropped.
+ *
+ * @author hajadalaj
+ */
+public final class ReviewQueue implements Closeable {
+
+    private static final Logger logger = Logger.getLogger(ReviewQueue.class.getName());
+
+    private final ProductManager pm;
+    private final int batchSize;
+    private final long delayNanos;
+    private final int capacity;
+    private List<ProductReview> pending;
+    private List<ProductReview> spare;
+    private long firstPendingNanos;
+    private long submitted;
+    private long applied;
+    private long flushUpTo;
+    private boolean closed;
+    private final Thread flusher;
+
+    ReviewQueue(ProductManager pm, int batchSize, Duration maxDelay, int capacity) {
+        if (batchSize < 1 || capacity < batchSize) {
+            throw new IllegalArgumentException("Invalid batch size " + batchSize + " capacity " + capacity);
+        }
+        this.pm = pm;
+        this.batchSize = batchSize;
+        this.delayNanos = maxDelay.toNanos();
+        this.capacity = capacity;
+        pending = new ArrayList<>(batchSize);
+        spare = new ArrayList<>(batchSize);
+        flusher = new Thread(this::flushLoop, "review-queue-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public void submit(int id, Rating rating, String comments) {
+        submit(new ProductReview(id, rating, comments));
+    }
+
+    /**
+     * Queues the review, waiting while the queue is full.
+     *
+     * @throws IllegalStateException if the queue is closed
+     */
+    public synchronized void submit(ProductReview review) {
+        boolean interrupted = false;
+        while (!closed && pending.size() >= capacity) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (closed) {
+            throw new IllegalStateException("Review queue closed");
+        }
+        if (pending.isEmpty()) {
+            firstPendingNanos = System.nanoTime();
+            notifyAll();
+        } else if (pending.size() + 1 == batchSize) {
+            notifyAll();
+        }
+        pending.add(review);
+        submitted++;
+    }
+
+    /**
+     * Applies the waiting reviews now and returns once every review
+     * submitted before the call has been applied.
+     */
+    public synchronized void flush() {
+        long target = submitted;
+        flushUpTo = Math.max(flushUpTo, target);
+        notifyAll();
+        boolean interrupted = false;
+        while (applied < target && flusher.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Applies the waiting reviews and stops the background thread; later
+     * submissions fail.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushLoop() {
+        try {
+            while (true) {
+                List<ProductReview> batch;
+                long batchEnd;
+                synchronized (this) {
+                    while (true) {
+                        if (pending.isEmpty()) {
+                            if (closed) {
+                                return;
+                            }
+                            wait();
+                            continue;
+                        }
+                        long remaining = firstPendingNanos + delayNanos - System.nanoTime();
+                        if (remaining <= 0 || pending.size() >= batchSize || flushUpTo > applied || closed) {
+                            break;
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                    batch = pending;
+                    pending = spare;
+                    batchEnd = submitted;
+                    notifyAll();
+                }
+                try {
+                    // Up to capacity reviews may have piled up while the
+                    // last batch was applied; they go out batchSize at a time.
+                    for (int from = 0; from < batch.size(); from += batchSize) {
+                        List<ProductReview> part = batch.subList(from, Math.min(batch.size(), from + batchSize));
+                        try {
+                            pm.reviewProducts(part);
+                        } catch (RuntimeException ex) {
+                            logger.log(Level.WARNING, "Dropped a batch of " + part.size() + " reviews", ex);
+                        }
+                    }
+                } finally {
+                    synchronized (this) {
+                        batch.clear();
+                        spare = batch;
+                        applied = batchEnd;
+                        notifyAll();
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2021 hajadalaj
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package labs.pm.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Column store for the reviews of one product: a byte per review for the
+ * rating and the comments packed back to back as UTF-8 in one byte arena,
+ * delimited by an offset table. Compared with a list of {@code Review}
+ * objects this drops the per-review object headers and references, and
+ * {@code Review} instances are only created when a review is read.
+ * <p>
+ * Reviews are also chained into one bucket per rating as they are appended,
+ * so they can be read best rating first, in arrival order within a rating,
+ * without sorting.
+ * <p>
+ * Not thread-safe; {@code ProductEntry} guards it with its monitor. A
+ * {@link Snapshot} taken under that monitor may be read afterwards without
+ * it, since the store only ever appends past the snapshot's end.
+ *
+ * @author hajadalaj
+ */
+class ReviewStore {
+
+    private static final byte NULL_COMMENTS = 0x40;
+    private static final byte RATING_MASK = 0x3F;
+    private static final Rating[] RATINGS = Rating.values();
+    private static final int[] NO_BUCKETS = new int[0];
+
+    private byte[] ratings = new byte[0];
+    private int[] ends = new int[0];
+    private int[] next = new int[0];
+    private byte[] comments = new byte[0];
+    private int[] heads = NO_BUCKETS;
+    private int[] tails = NO_BUCKETS;
+    private int size;
+
+    /**
+     * Appends the review, encoding its comments straight into the arena
+     * rather than through a temporary byte array.
+     */
+    void add(Review review) {
+        String text = review.getComments();
+        int start = commentsEnd();
+        if (text == null) {
+            append(review.getRating(), start, true);
+            return;
+        }
+        append(review.getRating(), encode(text, start), false);
+    }
+
+    /**
+     * Appends a review whose comments are already UTF-8 encoded, or
+     * {@code null}.
+     */
+    void add(Rating reviewRating, byte[] text) {
+        int start = commentsEnd();
+        if (text == null) {
+            append(reviewRating, start, true);
+            return;
+        }
+        reserveComments(start + text.length);
+        System.arraycopy(text, 0, comments, start, text.length);
+        append(reviewRating, start + text.length, false);
+    }
+
+    private int commentsEnd() {
+        return size == 0 ? 0 : ends[size - 1];
+    }
+
+    private void reserveComments(int end) {
+        if (end > comments.length) {
+            comments = Arrays.copyOf(comments, Math.max(end, comments.length + (comments.length >> 1)));
+        }
+    }
+
+    private void append(Rating reviewRating, int end, boolean nullComments) {
+        if (size == ratings.length) {
+            grow();
+        }
+        int stars = reviewRating.ordinal();
+        ratings[size] = (byte) (nullComments ? stars | NULL_COMMENTS : stars);
+        ends[size] = end;
+        next[size] = -1;
+        if (tails[stars] < 0) {
+            heads[stars] = size;
+        } else {
+            next[tails[stars]] = size;
+        }
+        tails[stars] = size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Writes the text to the arena as UTF-8, in a single pass while it is
+     * ASCII.
+     *
+     * @return the arena offset past the text
+     */
+    private int encode(String text, int position) {
+        int length = text.length();
+        reserveComments(position + length);
+        int i = 0;
+        for (char c; i < length && (c = text.charAt(i)) < 0x80; i++) {
+            comments[position++] = (byte) c;
+        }
+        if (i < length) {
+            reserveComments(position + encodedLength(text, i));
+            position = encode(text, i, comments, position);
+        }
+        return position;
+    }
+
+    /**
+     * Length in UTF-8 of the text from {@code from}, with unpaired surrogates
+     * counted as the single {@code '?'} that {@code String.getBytes} replaces
+     * them with.
+     */
+    private static int encodedLength(String text, int from) {
+        int length = 0;
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int encode(String text, int from, byte[] out, int position) {
+        for (int i = from; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xC0 | c >> 6);
+                out[position++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                out[position++] = (byte) (0xF0 | code >> 18);
+                out[position++] = (byte) (0x80 | code >> 12 & 0x3F);
+                out[position++] = (byte) (0x80 | code >> 6 & 0x3F);
+                out[position++] = (byte) (0x80 | code & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                out[position++] = '?';
+            } else {
+                out[position++] = (byte) (0xE0 | c >> 12);
+                out[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                out[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return position;
+    }
+
+    private void grow() {
+        int capacity = Math.max(4, size + (size >> 1));
+        ratings = Arrays.copyOf(ratings, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        next = Arrays.copyOf(next, capacity);
+        if (heads == NO_BUCKETS) {
+            heads = new int[RATINGS.length];
+            tails = new int[RATINGS.length];
+            Arrays.fill(heads, -1);
+            Arrays.fill(tails, -1);
+        }
+    }
+
+    /**
+     * The reviews present when the snapshot was taken, iterated best rating
+     * first.
+     */
+    static class Snapshot implements Iterable<Review> {
+
+        private final byte[] ratings;
+        private final int[] ends;
+        private final int[] next;
+        private final byte[] comments;
+        private final int[] heads;
+        private final int size;
+
+        private Snapshot(ReviewStore store) {
+            ratings = store.ratings;
+            ends = store.ends;
+            next = store.next;
+            comments = store.comments;
+            heads = store.heads.clone();
+            size = store.size;
+        }
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        @Override
+        public Iterator<Review> iterator() {
+            return new Iterator<Review>() {
+                private int bucket = heads.length;
+                private int current = -1;
+
+                {
+                    advance();
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return current >= 0;
+                }
+
+                @Override
+                public Review next() {
+                    if (current < 0) {
+                        throw new NoSuchElementException();
+                    }
+                    Review review = review(current);
+                    current = next[current];
+                    if (current >= size) {
+                        current = -1;
+                    }
+                    if (current < 0) {
+                        advance();
+                    }
+                    return review;
+                }
+
+                private void advance() {
+                    while (current < 0 && bucket > 0) {
+                        current = heads[--bucket];
+                        if (current >= size) {
+                            current = -1;
+                        }
+                    }
+                }
+            };
+        }
+
+        private Review review(int index) {
+            Rating rating = RATINGS[ratings[index] & RATING_MASK];
+            if ((ratings[index] & NULL_COMMENTS) != 0) {
+                return new Review(rating, null);
+            }
+            int start = index == 0 ? 0 : ends[index - 1];
+            return new Review(rating, new String(comments, start, ends[index] - start, StandardCharsets.UTF_8));
+        }
+    }
+
+}